@@ -6,6 +6,7 @@ import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.*;
+import java.util.logging.Logger;
 
 import javax.enterprise.context.SessionScoped;
 import javax.faces.context.ExternalContext;
@@ -15,10 +16,16 @@ import javax.inject.Named;
 import javax.servlet.http.Part;
 
 import model.Complex;
+import model.ComplexMatrix;
 import model.ControlledQuantumGate;
 import model.ControlledQuantumGateWithParameter;
+import model.NoiseQuantumGate;
+import model.PrefixStateCache;
 import model.QuantumCircuit;
 import model.QuantumGate;
+import model.QuantumGateWithParameter;
+import model.ShotCounts;
+import model.SimulationSnapshot;
 import model.SingleQuantumGate;
 import model.SingleQuantumGateWithParameter;
 import net.bootsfaces.component.canvas.Drawing;
@@ -38,11 +45,23 @@ public class QuantumCircuitService implements Serializable {
 	public static final int GATE_HEIGHT = 25;
 	/** height of canvas. */
 	public static final int HEIGHT = 500;
+	/**
+	 * Logs the counters of the state caches. They cover every session of the
+	 * server, so they are kept out of the view.
+	 */
+	private static final Logger LOG = Logger.getLogger(QuantumCircuitService.class.getName());
 	/**
 	 * The maximum number of quantum wires we want to potentially support on the
 	 * canvas.
 	 */
 	public static final int MAX_WIRES_AND_STATES = 10;
+	/** The number of columns of states the tables render at most. */
+	public static final int MAX_STATE_COLUMNS = 9;
+	/**
+	 * The most qubits a circuit can have for its unitary to be downloaded. Eight
+	 * qubits already make 65536 cells of text.
+	 */
+	public static final int MAX_UNITARY_DOWNLOAD_QUBITS = 8;
 	/** 3/5 of the gate height. */
 	public static final int THREE_FIFTHS_HEIGHT = GATE_HEIGHT * 3 / 5;
 	/** width of canvas. */
@@ -69,12 +88,33 @@ public class QuantumCircuitService implements Serializable {
 	private int position;
 	/** A running error message for output to the user. */
 	private String errorMessage = "";
+	/** The number of shots to measure the circuit with. */
+	private int shots = 100000;
+	/** The outcomes of the last time the circuit was measured. */
+	private ShotCounts shotCounts;
+	/** The version of the circuit the shots were measured on. */
+	private long shotCountsVersion;
+	/** The first column of states shown in the tables. */
+	private int firstColumn;
+	/** The number of columns of states shown in the tables at once. */
+	private int columnWindow = MAX_STATE_COLUMNS;
+	/** The last drawing of the circuit. */
+	private final ViewMemo<QuantumDrawing> drawingMemo = new ViewMemo<>();
+	/** The last histogram table. */
+	private final ViewMemo<List<QuantumShotViewer>> histogramMemo = new ViewMemo<>();
+	/** The last qubits table. */
+	private final ViewMemo<List<QuantumQubitViewer>> qubitsMemo = new ViewMemo<>();
+	/** The last states table. */
+	private final ViewMemo<List<QuantumStateViewer>> statesMemo = new ViewMemo<>();
+	/** The last status tip. */
+	private final ViewMemo<String> statusTipMemo = new ViewMemo<>();
 
 	/**
 	 * Set up with a new quantum circuit.
 	 */
 	public void clear() {
 		qc = new QuantumCircuit();
+		firstColumn = 0;
 	}
 
 	/**
@@ -84,6 +124,7 @@ public class QuantumCircuitService implements Serializable {
 		int numberOfQubits = qc.getWires().size();
 		qc = new QuantumCircuit();
 		qc.setNumberOfQubits(numberOfQubits);
+		firstColumn = 0;
 	}
 
 	/**
@@ -112,6 +153,18 @@ public class QuantumCircuitService implements Serializable {
 	 * @throws IOException Exception if crash.
 	 */
 	public void getStateAsFile() throws IOException {
+		if (qc.getWires().size() > SimulationSnapshot.MAX_AMPLITUDE_QUBITS) {
+			errorMessage = "State tables can only be downloaded for up to " + SimulationSnapshot.MAX_AMPLITUDE_QUBITS
+					+ " qubits!";
+			return;
+		}
+		List<QuantumStateViewer> table;
+		try {
+			table = getStatesTable();
+		} catch (IllegalArgumentException | UnsupportedOperationException e) {
+			errorMessage = "The states could not be computed!";
+			return;
+		}
 		FacesContext fc = FacesContext.getCurrentInstance();
 		ExternalContext ec = fc.getExternalContext();
 
@@ -121,21 +174,83 @@ public class QuantumCircuitService implements Serializable {
 
 		OutputStream output = ec.getResponseOutputStream();
 		PrintWriter csv = new PrintWriter(output);
-		csv.println(
-				"\"Qubits\",\"State 0\",\"State 1\",\"State 2\",\"State 3\",\"State 4\",\"State 5\",\"State 6\",\"State 7\",\"State 8\"");
-		for (QuantumStateViewer qsv : getStatesTable()) {
-			csv.println("\"" + qsv.getQubits() + "\"," + qsv.getState0() + "," + qsv.getState1() + "," + qsv.getState2()
-					+ "," + qsv.getState3() + "," + qsv.getState4() + "," + qsv.getState5() + "," + qsv.getState6()
-					+ "," + qsv.getState7() + "," + qsv.getState8());
+		// the columns follow the window the tables are paged to.
+		StringBuilder header = new StringBuilder("\"Qubits\"");
+		for (int n = 0; n < columnWindow; ++n) {
+			header.append(",\"State ").append(firstColumn + n).append('"');
+		}
+		csv.println(header);
+		for (QuantumStateViewer qsv : table) {
+			StringBuilder line = new StringBuilder("\"").append(qsv.getQubits()).append('"');
+			for (int n = 0; n < columnWindow; ++n) {
+				line.append(',').append(qsv.getState(n));
+			}
+			csv.println(line);
+		}
+		csv.close();
+		fc.responseComplete();
+	}
+
+	/**
+	 * Output the unitary of the whole circuit as a file.
+	 * 
+	 * @throws IOException Exception if crash.
+	 */
+	public void getUnitaryAsFile() throws IOException {
+		int numberOfQubits = qc.getWires().size();
+		if (numberOfQubits > MAX_UNITARY_DOWNLOAD_QUBITS) {
+			errorMessage = "Unitaries can only be downloaded for up to " + MAX_UNITARY_DOWNLOAD_QUBITS + " qubits!";
+			return;
+		}
+		if (qc.isNoisy(qc.getMaxWireGatePosition() + 1)) {
+			errorMessage = "Circuits with noise do not have a unitary!";
+			return;
+		}
+		ComplexMatrix unitary;
+		try {
+			unitary = qc.getUnitary(0, qc.getMaxWireGatePosition() + 1);
+		} catch (IllegalArgumentException | UnsupportedOperationException e) {
+			errorMessage = "The unitary could not be computed!";
+			return;
+		}
+		FacesContext fc = FacesContext.getCurrentInstance();
+		ExternalContext ec = fc.getExternalContext();
+
+		ec.responseReset();
+		ec.setResponseContentType("application/octet-stream");
+		ec.setResponseHeader("Content-Disposition", "attachment; filename=\"unitary.csv\"");
+
+		PrintWriter csv = new PrintWriter(ec.getResponseOutputStream());
+		StringBuilder header = new StringBuilder("\"\"");
+		for (int column = 0; column < unitary.getColumns(); ++column) {
+			header.append(",\"").append(new QuantumStateViewer(numberOfQubits, column, null).getQubits()).append('"');
+		}
+		csv.println(header);
+		for (int row = 0; row < unitary.getRows(); ++row) {
+			StringBuilder line = new StringBuilder("\"")
+					.append(new QuantumStateViewer(numberOfQubits, row, null).getQubits()).append('"');
+			for (int column = 0; column < unitary.getColumns(); ++column) {
+				line.append(',').append(new Complex(unitary.getReal(row, column), unitary.getImaginary(row, column)));
+			}
+			csv.println(line);
 		}
 		csv.close();
 		fc.responseComplete();
 	}
 
 	/**
-	 * @return The drawing for the canvas in the view.
+	 * @return The drawing for the canvas in the view, only redrawn once the
+	 *         circuit, the pending controls or the chosen gate type change.
 	 */
 	public QuantumDrawing getDrawing() {
+		return drawingMemo.get(Arrays.asList(qc.getVersion(), position, new ArrayList<>(wires), gateType),
+				this::drawCircuit);
+	}
+
+	/**
+	 * @return A fresh drawing of the circuit.
+	 */
+	private QuantumDrawing drawCircuit() {
 		QuantumDrawing canvas = new QuantumDrawing();
 		setFillStyle("white", canvas);
 		if (qc != null && qc.getWires().size() > 0) {
@@ -153,9 +268,10 @@ public class QuantumCircuitService implements Serializable {
 						if (SingleQuantumGate.getGateTypes().contains(gateType)) {
 							setGateLabel(" " + qc.getGate(wire, position).getGateType(), wire, position, canvas);
 							// if single parameter gate
-						} else if (SingleQuantumGateWithParameter.getGateTypes().contains(gateType)) {
+						} else if (SingleQuantumGateWithParameter.getGateTypes().contains(gateType)
+								|| NoiseQuantumGate.getGateTypes().contains(gateType)) {
 							String gateTypeSublabel = "("
-									+ ((SingleQuantumGateWithParameter) qc.getGate(wire, position)).getValue() + ")";
+									+ ((QuantumGateWithParameter) qc.getGate(wire, position)).getValue() + ")";
 							setGateLabel(gateType, wire, position, canvas);
 							setGateSublabel(gateTypeSublabel, wire, position, canvas);
 							// if controlled gate
@@ -240,40 +356,144 @@ public class QuantumCircuitService implements Serializable {
 	}
 
 	/**
-	 * @return Get a table for displaying the qubits.
+	 * @return Get a table for displaying the qubits. Only rebuilt once the circuit
+	 *         or the window of columns changes.
 	 */
 	public List<QuantumQubitViewer> getQubitsTable() {
+		return qubitsMemo.get(Arrays.asList(qc.getVersion(), firstColumn, columnWindow), this::buildQubitsTable);
+	}
+
+	/**
+	 * @return A fresh table for displaying the qubits.
+	 */
+	private List<QuantumQubitViewer> buildQubitsTable() {
 		List<QuantumQubitViewer> table = new ArrayList<>();
 
 		if (qc != null && qc.getWires().size() > 0) {
-			for (int n = 0; n < qc.getQubitProbabilities(0).size(); ++n) {
-				List<Complex> states = new ArrayList<>();
-				for (int state = 0; state < MAX_WIRES_AND_STATES; ++state) {
-					states.add(qc.getQubitProbabilities(state).get(n));
-				}
+			SimulationSnapshot snapshot = qc.getSnapshot(firstColumn, columnWindow);
+			for (int n = 0; n < qc.getWires().size(); ++n) {
+				table.add(new QuantumQubitViewer(n, snapshot));
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * @return A histogram of the last time the circuit was measured. Only rebuilt
+	 *         after the next measurement or a change to the circuit, which empties
+	 *         it.
+	 */
+	public List<QuantumShotViewer> getHistogramTable() {
+		return histogramMemo.get(Arrays.asList(qc.getVersion(), shotCounts), this::buildHistogramTable);
+	}
 
-				table.add(new QuantumQubitViewer(n, states));
+	/**
+	 * @return A fresh histogram of the last time the circuit was measured.
+	 */
+	private List<QuantumShotViewer> buildHistogramTable() {
+		List<QuantumShotViewer> table = new ArrayList<>();
+		// shots of an earlier version of the circuit no longer apply.
+		if (shotCounts != null && shotCountsVersion == qc.getVersion()) {
+			for (int n = 0; n < shotCounts.size(); ++n) {
+				table.add(new QuantumShotViewer(shotCounts.getNumberOfQubits(), shotCounts.getOutcomeAt(n),
+						shotCounts.getCountAt(n), shotCounts.getShots()));
 			}
 		}
 		return table;
 	}
 
 	/**
-	 * @return Get a table for displaying the qubit states.
+	 * @return The number of shots to measure the circuit with.
+	 */
+	public int getShots() {
+		return shots;
+	}
+
+	/**
+	 * Measures the circuit the chosen number of shots.
+	 */
+	public void runShots() {
+		try {
+			shotCounts = qc.getWires().size() == 0 ? null : qc.sample(shots);
+			shotCountsVersion = qc.getVersion();
+		} catch (IllegalArgumentException | UnsupportedOperationException e) {
+			errorMessage = "The circuit could not be measured!";
+		}
+	}
+
+	/**
+	 * @param shots The number of shots to measure the circuit with.
+	 */
+	public void setShots(final int shots) {
+		this.shots = shots;
+	}
+
+	/**
+	 * @return The number of columns of states shown in the tables at once.
+	 */
+	public int getColumnWindow() {
+		return columnWindow;
+	}
+
+	/**
+	 * @return The first column of states shown in the tables.
+	 */
+	public int getFirstColumn() {
+		return firstColumn;
+	}
+
+	/**
+	 * Pages the tables forward by one window, as far as the final state.
+	 */
+	public void nextColumns() {
+		firstColumn = Math.min(firstColumn + columnWindow, qc.getMaxWireGatePosition() + 1);
+	}
+
+	/**
+	 * Pages the tables back by one window.
+	 */
+	public void previousColumns() {
+		firstColumn = Math.max(0, firstColumn - columnWindow);
+	}
+
+	/**
+	 * @param columnWindow The number of columns of states shown in the tables at
+	 *                     once, up to {@link #MAX_STATE_COLUMNS}.
+	 */
+	public void setColumnWindow(final int columnWindow) {
+		this.columnWindow = Math.max(1, Math.min(MAX_STATE_COLUMNS, columnWindow));
+	}
+
+	/**
+	 * @param firstColumn The first column of states shown in the tables.
+	 */
+	public void setFirstColumn(final int firstColumn) {
+		this.firstColumn = Math.max(0, firstColumn);
+	}
+
+	/**
+	 * @return Get a table for displaying the qubit states. Only rebuilt once the
+	 *         circuit or the window of columns changes.
 	 */
 	public List<QuantumStateViewer> getStatesTable() {
+		return statesMemo.get(Arrays.asList(qc.getVersion(), firstColumn, columnWindow), this::buildStatesTable);
+	}
+
+	/**
+	 * @return A fresh table for displaying the qubit states.
+	 */
+	private List<QuantumStateViewer> buildStatesTable() {
 		List<QuantumStateViewer> table = new ArrayList<>();
 
 		if (qc != null && qc.getWires().size() > 0) {
-			for (int n = 0; n < qc.getState(0).length; ++n) {
-				List<Complex> states = new ArrayList<>();
-				for (int state = 0; state < MAX_WIRES_AND_STATES; ++state) {
-					states.add(qc.getState(state)[n][0]);
-				}
-
-				table.add(new QuantumStateViewer(qc.getWires().size(), n, states));
+			// amplitudes stop where noise starts, leaving the later columns blank.
+			SimulationSnapshot snapshot = qc.getSnapshot(firstColumn, columnWindow);
+			for (int n = 0; n < snapshot.getSize(); ++n) {
+				table.add(new QuantumStateViewer(qc.getWires().size(), n, snapshot));
 			}
-
+			LOG.fine(() -> String.format("checkpoints: %s; shared: %d states in %.1f MB, %d hits, %d misses",
+					qc.getCheckpoints(), PrefixStateCache.getSize(), PrefixStateCache.getBytes() / 1048576.0,
+					PrefixStateCache.getHits(), PrefixStateCache.getMisses()));
 		}
 		return table;
 	}
@@ -306,6 +526,13 @@ public class QuantumCircuitService implements Serializable {
 				} else if (SingleQuantumGateWithParameter.getGateTypes().contains(gateType)) {
 					qc.setGate(new SingleQuantumGateWithParameter(gateType, parameterValue, gatePosition,
 							Collections.singletonList(wire)));
+				} else if (NoiseQuantumGate.getGateTypes().contains(gateType)) {
+					try {
+						qc.setGate(new NoiseQuantumGate(gateType, parameterValue, gatePosition,
+								Collections.singletonList(wire)));
+					} catch (IllegalArgumentException err) {
+						errorMessage = "The probability of noise must be between 0 and 1!";
+					}
 				} else if (ControlledQuantumGate.getGateTypes().contains(gateType)) {
 					try {
 						wires.add(wire);
@@ -314,7 +541,7 @@ public class QuantumCircuitService implements Serializable {
 							qc.setGate(new ControlledQuantumGate(gateType, gatePosition, new ArrayList<>(wires)));
 							wires.clear();
 						}
-					} catch (UnsupportedOperationException err) {
+					} catch (IllegalArgumentException err) {
 						wires.clear();
 						errorMessage = "That particular gate configuration is not supported!";
 					}
@@ -328,7 +555,7 @@ public class QuantumCircuitService implements Serializable {
 									new ArrayList<>(wires)));
 							wires.clear();
 						}
-					} catch (UnsupportedOperationException err) {
+					} catch (IllegalArgumentException err) {
 						wires.clear();
 						errorMessage = "That particular gate configuration is not supported!";
 					}
@@ -630,6 +857,14 @@ public class QuantumCircuitService implements Serializable {
 	 * @return A running status bar of instructions to the user.
 	 */
 	public String getStatusTip() {
+		errorMessage = "";
+		return statusTipMemo.get(Arrays.asList(qc.getVersion(), gateType, wires.size()), this::buildStatusTip);
+	}
+
+	/**
+	 * @return A fresh status bar of instructions to the user.
+	 */
+	private String buildStatusTip() {
 		String returnValue;
 		if (qc.getWires().size() == 0) {
 			returnValue = "First, add qubits to your circuit from the Qubits menu";
@@ -655,7 +890,6 @@ public class QuantumCircuitService implements Serializable {
 						+ " gate or choose a different gate type.";
 			}
 		}
-		errorMessage = "";
 		return returnValue;
 	}
 
@@ -666,6 +900,14 @@ public class QuantumCircuitService implements Serializable {
 		return errorMessage;
 	}
 
+	/**
+	 * @return The most qubits a circuit can have for its unitary to be
+	 *         downloaded.
+	 */
+	public int getMaxUnitaryDownloadQubits() {
+		return MAX_UNITARY_DOWNLOAD_QUBITS;
+	}
+
 	/**
 	 * @return The number of qubits in this circuit.
 	 */
@@ -1,8 +1,7 @@
 package controller;
 
-import java.util.List;
-
 import model.Complex;
+import model.SimulationSnapshot;
 
 /**
  * Support file for viewing qubits and their probabilities of measuring to one
@@ -17,17 +16,17 @@ public final class QuantumQubitViewer {
 	 * one.
 	 */
 	private final int qubit;
-	/** An arraylist of probabilities associated with each state . */
-	private final List<Complex> states;
+	/** The probabilities associated with each state. */
+	private final SimulationSnapshot states;
 
 	/**
 	 * Constructor.
 	 * 
 	 * @param qubit  The qubit number.
-	 * @param states The probability of collapse to one for each state associated
-	 *               with this qubit.
+	 * @param states The states holding the probability of collapse to one of
+	 *               this qubit.
 	 */
-	public QuantumQubitViewer(final int qubit, final List<Complex> states) {
+	public QuantumQubitViewer(final int qubit, final SimulationSnapshot states) {
 		this.qubit = qubit;
 		this.states = states;
 	}
@@ -45,10 +44,7 @@ public final class QuantumQubitViewer {
 	 * @return Get state at point zero.
 	 */
 	public Complex getState0() {
-		if (states.size() > 0) {
-			return states.get(0);
-		}
-		return new Complex();
+		return getState(0);
 	}
 
 	/**
@@ -57,10 +53,7 @@ public final class QuantumQubitViewer {
 	 * @return Get state at point one.
 	 */
 	public Complex getState1() {
-		if (states.size() > 1) {
-			return states.get(1);
-		}
-		return new Complex();
+		return getState(1);
 	}
 
 	/**
@@ -69,11 +62,7 @@ public final class QuantumQubitViewer {
 	 * @return Get state at point two.
 	 */
 	public Complex getState2() {
-		if (states.size() > 2) {
-			return states.get(2);
-		}
-		return new Complex();
-
+		return getState(2);
 	}
 
 	/**
@@ -82,11 +71,7 @@ public final class QuantumQubitViewer {
 	 * @return Get state at point three.
 	 */
 	public Complex getState3() {
-		if (states.size() > 3) {
-			return states.get(3);
-		}
-		return new Complex();
-
+		return getState(3);
 	}
 
 	/**
@@ -95,11 +80,7 @@ public final class QuantumQubitViewer {
 	 * @return Get state at point four.
 	 */
 	public Complex getState4() {
-		if (states.size() > 4) {
-			return states.get(4);
-		}
-		return new Complex();
-
+		return getState(4);
 	}
 
 	/**
@@ -108,11 +89,7 @@ public final class QuantumQubitViewer {
 	 * @return Get state at point five.
 	 */
 	public Complex getState5() {
-		if (states.size() > 5) {
-			return states.get(5);
-		}
-		return new Complex();
-
+		return getState(5);
 	}
 
 	/**
@@ -121,11 +98,7 @@ public final class QuantumQubitViewer {
 	 * @return Get state at point six.
 	 */
 	public Complex getState6() {
-		if (states.size() > 6) {
-			return states.get(6);
-		}
-		return new Complex();
-
+		return getState(6);
 	}
 
 	/**
@@ -134,11 +107,7 @@ public final class QuantumQubitViewer {
 	 * @return Get state at point seven.
 	 */
 	public Complex getState7() {
-		if (states.size() > 7) {
-			return states.get(7);
-		}
-		return new Complex();
-
+		return getState(7);
 	}
 
 	/**
@@ -147,11 +116,7 @@ public final class QuantumQubitViewer {
 	 * @return Get state at point eight.
 	 */
 	public Complex getState8() {
-		if (states.size() > 8) {
-			return states.get(8);
-		}
-		return new Complex();
-
+		return getState(8);
 	}
 	/**
 	 * Crosstab.
@@ -159,11 +124,7 @@ public final class QuantumQubitViewer {
 	 * @return Get state at point eight.
 	 */
 	public Complex getState9() {
-		if (states.size() > 9) {
-			return states.get(9);
-		}
-		return new Complex();
-
+		return getState(9);
 	}
 	/**
 	 * Crosstab.
@@ -171,10 +132,19 @@ public final class QuantumQubitViewer {
 	 * @return Get state at point eight.
 	 */
 	public Complex getState10() {
-		if (states.size() > 10) {
-			return states.get(10);
+		return getState(10);
+	}
+
+	/**
+	 * Crosstab.
+	 * 
+	 * @param index The state index to read.
+	 * @return The probability of this qubit measuring one at the state index.
+	 */
+	private Complex getState(final int index) {
+		if (states.getColumns() > index) {
+			return new Complex(states.getWireProbability(index, qubit));
 		}
 		return new Complex();
-
 	}
 }
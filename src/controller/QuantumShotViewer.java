@@ -0,0 +1,59 @@
+package controller;
+
+/**
+ * Support file for viewing a measurement histogram. Each row is one basis
+ * state that was measured and how often.
+ * 
+ * @author cdberkstresser
+ *
+ */
+public final class QuantumShotViewer {
+	/** The number of times the basis state was measured. */
+	private final long count;
+	/**
+	 * The number of qubits in the circuit. Needed for padding the binary
+	 * representations of qubits with zeros.
+	 */
+	private final int numberOfQubits;
+	/** The basis state measured. For example 5, which will be represented as |101>. */
+	private final long outcome;
+	/** The total number of shots. */
+	private final long shots;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param numberOfQubits Total number of qubits measured.
+	 * @param outcome        The basis state measured.
+	 * @param count          The number of times the basis state was measured.
+	 * @param shots          The total number of shots.
+	 */
+	public QuantumShotViewer(final int numberOfQubits, final long outcome, final long count, final long shots) {
+		this.numberOfQubits = numberOfQubits;
+		this.outcome = outcome;
+		this.count = count;
+		this.shots = shots;
+	}
+
+	/**
+	 * @return The number of times the basis state was measured.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return The share of the shots that measured the basis state.
+	 */
+	public double getFrequency() {
+		return shots == 0 ? 0 : (double) count / shots;
+	}
+
+	/**
+	 * @return Qubit arrangment as a string.
+	 */
+	public String getQubits() {
+		String qString = Long.toBinaryString(outcome);
+		return "|" + "0".repeat(numberOfQubits - qString.length()) + qString + ">";
+	}
+}
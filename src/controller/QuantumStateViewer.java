@@ -1,8 +1,7 @@
 package controller;
 
-import java.util.List;
-
 import model.Complex;
+import model.SimulationSnapshot;
 
 /**
  * Support file for viewing states and their probabilities of measuring to one
@@ -20,10 +19,10 @@ public final class QuantumStateViewer {
 	/** The qubit states. For example 5, which will be represented as |101>. */
 	private final int qubits;
 	/**
-	 * List of states at any given time associated with this qubit arrangement. Will
+	 * The states at any given time. The amplitudes of this qubit arrangement will
 	 * be cross-tabbed.
 	 */
-	private final List<Complex> states;
+	private final SimulationSnapshot states;
 
 	/**
 	 * Constructor.
@@ -31,10 +30,10 @@ public final class QuantumStateViewer {
 	 * @param numberOfQubits Total number of qubits to consider in all the
 	 *                       arrangement.
 	 * @param qubits         The qubit arrangement.
-	 * @param states         An array of states to be crosstabbed with this qubit
+	 * @param states         The states to be crosstabbed with this qubit
 	 *                       arrangement.
 	 */
-	public QuantumStateViewer(final int numberOfQubits, final int qubits, final List<Complex> states) {
+	public QuantumStateViewer(final int numberOfQubits, final int qubits, final SimulationSnapshot states) {
 		this.numberOfQubits = numberOfQubits;
 		this.qubits = qubits;
 		this.states = states;
@@ -61,10 +60,7 @@ public final class QuantumStateViewer {
 	 * @return Get state at point zero.
 	 */
 	public Complex getState0() {
-		if (states.size() > 0) {
-			return states.get(0);
-		}
-		return new Complex();
+		return getState(0);
 	}
 
 	/**
@@ -73,10 +69,7 @@ public final class QuantumStateViewer {
 	 * @return Get state at point one.
 	 */
 	public Complex getState1() {
-		if (states.size() > 1) {
-			return states.get(1);
-		}
-		return new Complex();
+		return getState(1);
 	}
 
 	/**
@@ -85,11 +78,7 @@ public final class QuantumStateViewer {
 	 * @return Get state at point two.
 	 */
 	public Complex getState2() {
-		if (states.size() > 2) {
-			return states.get(2);
-		}
-		return new Complex();
-
+		return getState(2);
 	}
 
 	/**
@@ -98,11 +87,7 @@ public final class QuantumStateViewer {
 	 * @return Get state at point three.
 	 */
 	public Complex getState3() {
-		if (states.size() > 3) {
-			return states.get(3);
-		}
-		return new Complex();
-
+		return getState(3);
 	}
 
 	/**
@@ -111,11 +96,7 @@ public final class QuantumStateViewer {
 	 * @return Get state at point four.
 	 */
 	public Complex getState4() {
-		if (states.size() > 4) {
-			return states.get(4);
-		}
-		return new Complex();
-
+		return getState(4);
 	}
 
 	/**
@@ -124,11 +105,7 @@ public final class QuantumStateViewer {
 	 * @return Get state at point five.
 	 */
 	public Complex getState5() {
-		if (states.size() > 5) {
-			return states.get(5);
-		}
-		return new Complex();
-
+		return getState(5);
 	}
 
 	/**
@@ -137,11 +114,7 @@ public final class QuantumStateViewer {
 	 * @return Get state at point six.
 	 */
 	public Complex getState6() {
-		if (states.size() > 6) {
-			return states.get(6);
-		}
-		return new Complex();
-
+		return getState(6);
 	}
 
 	/**
@@ -150,11 +123,7 @@ public final class QuantumStateViewer {
 	 * @return Get state at point seven.
 	 */
 	public Complex getState7() {
-		if (states.size() > 7) {
-			return states.get(7);
-		}
-		return new Complex();
-
+		return getState(7);
 	}
 
 	/**
@@ -163,11 +132,7 @@ public final class QuantumStateViewer {
 	 * @return Get state at point eight.
 	 */
 	public Complex getState8() {
-		if (states.size() > 8) {
-			return states.get(8);
-		}
-		return new Complex();
-
+		return getState(8);
 	}
 
 	/**
@@ -176,11 +141,7 @@ public final class QuantumStateViewer {
 	 * @return Get state at point eight.
 	 */
 	public Complex getState9() {
-		if (states.size() > 9) {
-			return states.get(9);
-		}
-		return new Complex();
-
+		return getState(9);
 	}
 
 	/**
@@ -189,10 +150,19 @@ public final class QuantumStateViewer {
 	 * @return Get state at point eight.
 	 */
 	public Complex getState10() {
-		if (states.size() > 10) {
-			return states.get(10);
+		return getState(10);
+	}
+
+	/**
+	 * Crosstab.
+	 * 
+	 * @param index The state index to read, counted from the start of the window.
+	 * @return The amplitude of this qubit arrangement at the state index.
+	 */
+	public Complex getState(final int index) {
+		if (states != null && states.getAmplitudeColumns() > index) {
+			return new Complex(states.getReal(index, qubits), states.getImaginary(index, qubits));
 		}
 		return new Complex();
-
 	}
 }
@@ -0,0 +1,37 @@
+package controller;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the last value of one view together with everything it was built
+ * from, usually the version of the circuit and a few selections of the user.
+ * JSF asks for the same view several times per request, and again on every
+ * AJAX update, so a view is only rebuilt once something it depends on moves.
+ *
+ * @author cdberkstresser
+ *
+ * @param <T> The type of the view.
+ */
+final class ViewMemo<T> implements Serializable {
+	/** Serializable ID. */
+	private static final long serialVersionUID = -4165930475418620718L;
+	/** Everything the last value was built from. Rebuilt after a restore. */
+	private transient List<Object> key;
+	/** The last value built. */
+	private transient T value;
+
+	/**
+	 * @param key     Everything the view is built from, compared with equals.
+	 * @param builder Builds the view when the key has moved on.
+	 * @return The remembered or newly built view.
+	 */
+	T get(final List<Object> key, final Supplier<T> builder) {
+		if (!key.equals(this.key)) {
+			value = builder.get();
+			this.key = key;
+		}
+		return value;
+	}
+}
@@ -0,0 +1,173 @@
+package model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Walker's alias table over the basis states of a state, for drawing
+ * measurement outcomes in constant time each. Every column of the table keeps
+ * its own outcome with some probability and otherwise gives way to its alias,
+ * so a shot costs one random column and one random comparison. Only basis
+ * states with a nonzero probability get a column.
+ *
+ * @author cdberkstresser
+ *
+ */
+final class AliasTable implements Serializable {
+	/** The shots drawn from one random stream. */
+	private static final int SHOTS_PER_STREAM = 1 << 16;
+	/** Serializable ID. */
+	private static final long serialVersionUID = 8219646049155306458L;
+	/** The column each column gives way to. */
+	private final int[] alias;
+	/** The number of wires measured. */
+	private final int numberOfQubits;
+	/** The basis state of each column, in increasing order. */
+	private final long[] outcomes;
+	/** The probability each column keeps its own outcome. */
+	private final double[] threshold;
+
+	/**
+	 * Constructor. Builds the table with Vose's method.
+	 *
+	 * @param numberOfQubits The number of wires measured.
+	 * @param outcomes       The basis states, in increasing order.
+	 * @param weights        The probability of each basis state. Need not add up
+	 *                       to exactly one.
+	 */
+	AliasTable(final int numberOfQubits, final long[] outcomes, final double[] weights) {
+		int size = outcomes.length;
+		if (size == 0) {
+			throw new IllegalArgumentException("There is nothing to measure.");
+		}
+		this.numberOfQubits = numberOfQubits;
+		this.outcomes = outcomes;
+		alias = new int[size];
+		threshold = new double[size];
+		double total = 0;
+		for (double weight : weights) {
+			total += weight;
+		}
+		// columns below the average are topped up by columns above it.
+		int[] small = new int[size];
+		int[] large = new int[size];
+		int smallCount = 0;
+		int largeCount = 0;
+		for (int n = 0; n < size; ++n) {
+			threshold[n] = weights[n] * size / total;
+			if (threshold[n] < 1) {
+				small[smallCount++] = n;
+			} else {
+				large[largeCount++] = n;
+			}
+		}
+		while (smallCount > 0 && largeCount > 0) {
+			int less = small[--smallCount];
+			int more = large[--largeCount];
+			alias[less] = more;
+			threshold[more] -= 1 - threshold[less];
+			if (threshold[more] < 1) {
+				small[smallCount++] = more;
+			} else {
+				large[largeCount++] = more;
+			}
+		}
+		// whatever is left over is only off by rounding.
+		while (largeCount > 0) {
+			threshold[large[--largeCount]] = 1;
+		}
+		while (smallCount > 0) {
+			threshold[small[--smallCount]] = 1;
+		}
+	}
+
+	/**
+	 * @param state A pure state.
+	 * @return The table for measuring every wire of the state.
+	 */
+	static AliasTable of(final StateVector state) {
+		long[] outcomes = state.getSupport();
+		double[] weights = new double[outcomes.length];
+		for (int n = 0; n < outcomes.length; ++n) {
+			weights[n] = state.getProbability(outcomes[n]);
+		}
+		return new AliasTable(state.getNumberOfQubits(), outcomes, weights);
+	}
+
+	/**
+	 * @param density A density matrix.
+	 * @return The table for measuring every wire of the state.
+	 */
+	static AliasTable of(final DensityMatrix density) {
+		int size = 1 << density.getNumberOfQubits();
+		long[] outcomes = new long[size];
+		double[] weights = new double[size];
+		int count = 0;
+		for (int n = 0; n < size; ++n) {
+			if (density.getProbability(n) > 0) {
+				outcomes[count] = n;
+				weights[count++] = density.getProbability(n);
+			}
+		}
+		return new AliasTable(density.getNumberOfQubits(), Arrays.copyOf(outcomes, count),
+				Arrays.copyOf(weights, count));
+	}
+
+	/**
+	 * Draws shots across the simulation pool. Every block of shots gets its own
+	 * random stream split off in order, so the counts only depend on the random
+	 * generator passed in and not on scheduling.
+	 *
+	 * @param shots  The number of shots.
+	 * @param random The source of the random streams.
+	 * @return How many times each basis state was measured.
+	 */
+	ShotCounts sample(final long shots, final SplittableRandom random) {
+		if (shots < 0) {
+			throw new IllegalArgumentException("The number of shots can not be negative.");
+		}
+		int blocks = Math.toIntExact((shots + SHOTS_PER_STREAM - 1) / SHOTS_PER_STREAM);
+		SplittableRandom[] streams = new SplittableRandom[blocks];
+		for (int n = 0; n < blocks; ++n) {
+			streams[n] = random.split();
+		}
+		long[] totals = new long[outcomes.length];
+		QuantumSimulator.forEachRange(blocks, 1, (from, to) -> {
+			long[] counts = new long[outcomes.length];
+			for (int block = from; block < to; ++block) {
+				long end = Math.min(shots, (long) (block + 1) * SHOTS_PER_STREAM);
+				for (long shot = (long) block * SHOTS_PER_STREAM; shot < end; ++shot) {
+					++counts[sample(streams[block])];
+				}
+			}
+			synchronized (totals) {
+				for (int n = 0; n < counts.length; ++n) {
+					totals[n] += counts[n];
+				}
+			}
+		});
+		int measured = 0;
+		for (long count : totals) {
+			measured += count == 0 ? 0 : 1;
+		}
+		long[] measuredOutcomes = new long[measured];
+		long[] measuredCounts = new long[measured];
+		for (int n = 0, m = 0; n < totals.length; ++n) {
+			if (totals[n] != 0) {
+				measuredOutcomes[m] = outcomes[n];
+				measuredCounts[m++] = totals[n];
+			}
+		}
+		return new ShotCounts(numberOfQubits, measuredOutcomes, measuredCounts);
+	}
+
+	/**
+	 * @param random The random stream.
+	 * @return The column of the outcome of one shot.
+	 */
+	private int sample(final SplittableRandom random) {
+		int column = random.nextInt(threshold.length);
+		return random.nextDouble() < threshold[column] ? column : alias[column];
+	}
+}
@@ -0,0 +1,46 @@
+package model;
+
+/**
+ * The innermost loops of the simulator, run over contiguous runs of
+ * amplitudes. Kept behind an interface so a vectorized implementation can be
+ * swapped in when the platform supports it.
+ *
+ * @author cdberkstresser
+ *
+ */
+interface AmplitudeKernel {
+	/**
+	 * Applies a 2x2 matrix to runs of amplitude pairs.
+	 *
+	 * @param real      The real parts of the amplitudes.
+	 * @param imaginary The imaginary parts of the amplitudes.
+	 * @param zero      The first amplitude of the run with the target bit clear.
+	 * @param one       The first amplitude of the run with the target bit set.
+	 * @param length    The number of pairs in the run.
+	 * @param matrix    The 2x2 matrix as {m00r, m00i, m01r, m01i, m10r, m10i,
+	 *                  m11r, m11i}.
+	 */
+	void applyMatrix(double[] real, double[] imaginary, int zero, int one, int length, double[] matrix);
+
+	/**
+	 * Multiplies a run of amplitudes by a phase.
+	 *
+	 * @param real           The real parts of the amplitudes.
+	 * @param imaginary      The imaginary parts of the amplitudes.
+	 * @param from           The first amplitude of the run.
+	 * @param length         The number of amplitudes in the run.
+	 * @param phaseReal      The real part of the phase.
+	 * @param phaseImaginary The imaginary part of the phase.
+	 */
+	void applyPhase(double[] real, double[] imaginary, int from, int length, double phaseReal,
+			double phaseImaginary);
+
+	/**
+	 * @param real      The real parts of the amplitudes.
+	 * @param imaginary The imaginary parts of the amplitudes.
+	 * @param from      The first amplitude of the run.
+	 * @param length    The number of amplitudes in the run.
+	 * @return The total probability of the run of amplitudes.
+	 */
+	double sumProbabilities(double[] real, double[] imaginary, int from, int length);
+}
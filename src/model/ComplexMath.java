@@ -0,0 +1,115 @@
+package model;
+
+/**
+ * Complex arithmetic over primitive real and imaginary parts, for hot loops
+ * that can not afford to allocate a {@link Complex} for every operation.
+ * Results are returned one part at a time or written into arrays. Interleaved
+ * arrays hold the real part of each number followed by its imaginary part.
+ *
+ * @author cdberkstresser
+ *
+ */
+public final class ComplexMath {
+	/**
+	 * Utility class.
+	 */
+	private ComplexMath() {
+	}
+
+	/**
+	 * @param aR The real part of the first factor.
+	 * @param aI The imaginary part of the first factor.
+	 * @param bR The real part of the second factor.
+	 * @param bI The imaginary part of the second factor.
+	 * @return The imaginary part of the product.
+	 */
+	public static double multiplyImaginary(final double aR, final double aI, final double bR, final double bI) {
+		return aR * bI + aI * bR;
+	}
+
+	/**
+	 * @param aR The real part of the first factor.
+	 * @param aI The imaginary part of the first factor.
+	 * @param bR The real part of the second factor.
+	 * @param bI The imaginary part of the second factor.
+	 * @return The real part of the product.
+	 */
+	public static double multiplyReal(final double aR, final double aI, final double bR, final double bI) {
+		return aR * bR - aI * bI;
+	}
+
+	/**
+	 * Multiplies a number stored in separate real and imaginary arrays in place.
+	 *
+	 * @param real      The real parts.
+	 * @param imaginary The imaginary parts.
+	 * @param index     The position of the number to multiply.
+	 * @param factorR   The real part of the factor.
+	 * @param factorI   The imaginary part of the factor.
+	 */
+	public static void multiply(final double[] real, final double[] imaginary, final int index, final double factorR,
+			final double factorI) {
+		double aR = real[index];
+		double aI = imaginary[index];
+		real[index] = aR * factorR - aI * factorI;
+		imaginary[index] = aR * factorI + aI * factorR;
+	}
+
+	/**
+	 * Adds the product of two numbers to a number in an interleaved array.
+	 *
+	 * @param sum   The interleaved array holding the running sum.
+	 * @param index The position of the real part of the sum.
+	 * @param aR    The real part of the first factor.
+	 * @param aI    The imaginary part of the first factor.
+	 * @param bR    The real part of the second factor.
+	 * @param bI    The imaginary part of the second factor.
+	 */
+	public static void multiplyAdd(final double[] sum, final int index, final double aR, final double aI,
+			final double bR, final double bI) {
+		sum[index] += aR * bR - aI * bI;
+		sum[index + 1] += aR * bI + aI * bR;
+	}
+
+	/**
+	 * @param real      The real part.
+	 * @param imaginary The imaginary part.
+	 * @return The squared modulus, the probability of an amplitude.
+	 */
+	public static double norm(final double real, final double imaginary) {
+		return real * real + imaginary * imaginary;
+	}
+
+	/**
+	 * @param data    An interleaved matrix in row major order.
+	 * @param rows    The number of rows.
+	 * @param columns The number of columns.
+	 * @return The matrix as complex numbers for display.
+	 */
+	public static Complex[][] toComplex(final double[] data, final int rows, final int columns) {
+		Complex[][] returnValue = new Complex[rows][columns];
+		for (int row = 0; row < rows; ++row) {
+			for (int column = 0; column < columns; ++column) {
+				int index = 2 * (row * columns + column);
+				returnValue[row][column] = new Complex(data[index], data[index + 1]);
+			}
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @param matrix A matrix of complex numbers.
+	 * @return The matrix interleaved in row major order.
+	 */
+	public static double[] toInterleaved(final Complex[][] matrix) {
+		int columns = matrix.length == 0 ? 0 : matrix[0].length;
+		double[] returnValue = new double[2 * matrix.length * columns];
+		for (int row = 0; row < matrix.length; ++row) {
+			for (int column = 0; column < columns; ++column) {
+				returnValue[2 * (row * columns + column)] = matrix[row][column].getReal();
+				returnValue[2 * (row * columns + column) + 1] = matrix[row][column].getImaginary();
+			}
+		}
+		return returnValue;
+	}
+}
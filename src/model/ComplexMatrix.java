@@ -0,0 +1,272 @@
+package model;
+
+import java.io.Serializable;
+
+/**
+ * A dense complex matrix stored as primitive real and imaginary arrays in row
+ * major order. Used wherever full matrices are still needed, such as circuit
+ * unitaries for export, with products that are blocked for the cache and split
+ * across the pool when they are large.
+ *
+ * @author cdberkstresser
+ *
+ */
+public final class ComplexMatrix implements Serializable {
+	/** Serializable ID. */
+	private static final long serialVersionUID = 6021437590113468902L;
+	/** The rows and columns of each block of a product kept in cache. */
+	private static final int TILE = 64;
+	/** The number of columns. */
+	private final int columns;
+	/** The imaginary parts, in row major order. */
+	private final double[] imaginary;
+	/** The real parts, in row major order. */
+	private final double[] real;
+	/** The number of rows. */
+	private final int rows;
+
+	/**
+	 * Constructor. Starts out as all zeros.
+	 *
+	 * @param rows    The number of rows.
+	 * @param columns The number of columns.
+	 */
+	public ComplexMatrix(final int rows, final int columns) {
+		this.rows = rows;
+		this.columns = columns;
+		real = new double[Math.multiplyExact(rows, columns)];
+		imaginary = new double[real.length];
+	}
+
+	/**
+	 * @return The matrix as a state over the wires of its rows followed by the
+	 *         wires of its columns, sharing its storage. A gate applied to the
+	 *         row wires of the state multiplies every column of the matrix.
+	 */
+	StateVector asStateVector() {
+		if (Integer.bitCount(rows) != 1 || Integer.bitCount(columns) != 1) {
+			throw new IllegalArgumentException("The matrix must have a power of two rows and columns.");
+		}
+		return new HeapStateVector(Integer.numberOfTrailingZeros(real.length), real, imaginary);
+	}
+
+	/**
+	 * @return A copy of the matrix.
+	 */
+	public ComplexMatrix copy() {
+		ComplexMatrix returnValue = new ComplexMatrix(rows, columns);
+		System.arraycopy(real, 0, returnValue.real, 0, real.length);
+		System.arraycopy(imaginary, 0, returnValue.imaginary, 0, imaginary.length);
+		return returnValue;
+	}
+
+	/**
+	 * @param size The number of rows and columns.
+	 * @return The identity matrix.
+	 */
+	public static ComplexMatrix identity(final int size) {
+		ComplexMatrix returnValue = new ComplexMatrix(size, size);
+		for (int n = 0; n < size; ++n) {
+			returnValue.real[n * size + n] = 1;
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @param matrix A matrix of complex numbers.
+	 * @return The same matrix in primitive storage.
+	 */
+	public static ComplexMatrix of(final Complex[][] matrix) {
+		ComplexMatrix returnValue = new ComplexMatrix(matrix.length, matrix.length == 0 ? 0 : matrix[0].length);
+		for (int row = 0; row < returnValue.rows; ++row) {
+			for (int column = 0; column < returnValue.columns; ++column) {
+				returnValue.set(row, column, matrix[row][column].getReal(), matrix[row][column].getImaginary());
+			}
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @return The number of columns.
+	 */
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * @param row    The row.
+	 * @param column The column.
+	 * @return The imaginary part of the entry.
+	 */
+	public double getImaginary(final int row, final int column) {
+		return imaginary[row * columns + column];
+	}
+
+	/**
+	 * @param row    The row.
+	 * @param column The column.
+	 * @return The real part of the entry.
+	 */
+	public double getReal(final int row, final int column) {
+		return real[row * columns + column];
+	}
+
+	/**
+	 * @return The number of rows.
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * Multiplies this matrix by another. The other matrix is transposed first so
+	 * both operands are read along rows, and the product is worked out a block of
+	 * columns and inner terms at a time so the blocks stay in cache.
+	 *
+	 * @param other The matrix on the right.
+	 * @return The product.
+	 */
+	public ComplexMatrix multiply(final ComplexMatrix other) {
+		if (columns != other.rows) {
+			throw new IllegalArgumentException("The matrix dimensions do not match.");
+		}
+		int inner = columns;
+		int width = other.columns;
+		double[] transposedR = new double[other.real.length];
+		double[] transposedI = new double[other.real.length];
+		for (int row = 0; row < inner; ++row) {
+			for (int column = 0; column < width; ++column) {
+				transposedR[column * inner + row] = other.real[row * width + column];
+				transposedI[column * inner + row] = other.imaginary[row * width + column];
+			}
+		}
+		ComplexMatrix returnValue = new ComplexMatrix(rows, width);
+		QuantumSimulator.forEachRange(rows, getGrain((long) inner * width), (from, to) -> {
+			for (int columnTile = 0; columnTile < width; columnTile += TILE) {
+				int columnEnd = Math.min(width, columnTile + TILE);
+				for (int innerTile = 0; innerTile < inner; innerTile += TILE) {
+					int innerEnd = Math.min(inner, innerTile + TILE);
+					// two rows by two columns at a time, reusing each value loaded twice.
+					for (int row = from; row < to; row += 2) {
+						boolean secondRow = row + 1 < to;
+						int left0 = row * inner;
+						int left1 = secondRow ? left0 + inner : left0;
+						for (int column = columnTile; column < columnEnd; column += 2) {
+							boolean secondColumn = column + 1 < columnEnd;
+							int right0 = column * inner;
+							int right1 = secondColumn ? right0 + inner : right0;
+							double sum00R = 0;
+							double sum00I = 0;
+							double sum01R = 0;
+							double sum01I = 0;
+							double sum10R = 0;
+							double sum10I = 0;
+							double sum11R = 0;
+							double sum11I = 0;
+							for (int n = innerTile; n < innerEnd; ++n) {
+								double a0R = real[left0 + n];
+								double a0I = imaginary[left0 + n];
+								double a1R = real[left1 + n];
+								double a1I = imaginary[left1 + n];
+								double b0R = transposedR[right0 + n];
+								double b0I = transposedI[right0 + n];
+								double b1R = transposedR[right1 + n];
+								double b1I = transposedI[right1 + n];
+								sum00R += a0R * b0R - a0I * b0I;
+								sum00I += a0R * b0I + a0I * b0R;
+								sum01R += a0R * b1R - a0I * b1I;
+								sum01I += a0R * b1I + a0I * b1R;
+								sum10R += a1R * b0R - a1I * b0I;
+								sum10I += a1R * b0I + a1I * b0R;
+								sum11R += a1R * b1R - a1I * b1I;
+								sum11I += a1R * b1I + a1I * b1R;
+							}
+							returnValue.add(row, column, sum00R, sum00I);
+							if (secondColumn) {
+								returnValue.add(row, column + 1, sum01R, sum01I);
+							}
+							if (secondRow) {
+								returnValue.add(row + 1, column, sum10R, sum10I);
+								if (secondColumn) {
+									returnValue.add(row + 1, column + 1, sum11R, sum11I);
+								}
+							}
+						}
+					}
+				}
+			}
+		});
+		return returnValue;
+	}
+
+	/**
+	 * Multiplies this matrix by a column vector.
+	 *
+	 * @param vectorR The real parts of the vector.
+	 * @param vectorI The imaginary parts of the vector.
+	 * @param resultR Receives the real parts of the product.
+	 * @param resultI Receives the imaginary parts of the product.
+	 */
+	public void multiply(final double[] vectorR, final double[] vectorI, final double[] resultR,
+			final double[] resultI) {
+		if (vectorR.length != columns || resultR.length != rows) {
+			throw new IllegalArgumentException("The matrix dimensions do not match.");
+		}
+		QuantumSimulator.forEachRange(rows, getGrain(columns), (from, to) -> {
+			for (int row = from; row < to; ++row) {
+				double sumR = 0;
+				double sumI = 0;
+				for (int column = 0, n = row * columns; column < columns; ++column, ++n) {
+					sumR += real[n] * vectorR[column] - imaginary[n] * vectorI[column];
+					sumI += real[n] * vectorI[column] + imaginary[n] * vectorR[column];
+				}
+				resultR[row] = sumR;
+				resultI[row] = sumI;
+			}
+		});
+	}
+
+	/**
+	 * @param row           The row.
+	 * @param column        The column.
+	 * @param realPart      The real part of the entry.
+	 * @param imaginaryPart The imaginary part of the entry.
+	 */
+	public void set(final int row, final int column, final double realPart, final double imaginaryPart) {
+		real[row * columns + column] = realPart;
+		imaginary[row * columns + column] = imaginaryPart;
+	}
+
+	/**
+	 * @return The matrix as complex numbers for display.
+	 */
+	public Complex[][] toComplex() {
+		Complex[][] returnValue = new Complex[rows][columns];
+		for (int row = 0; row < rows; ++row) {
+			for (int column = 0; column < columns; ++column) {
+				returnValue[row][column] = new Complex(getReal(row, column), getImaginary(row, column));
+			}
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @param row           The row.
+	 * @param column        The column.
+	 * @param realPart      The real part to add to the entry.
+	 * @param imaginaryPart The imaginary part to add to the entry.
+	 */
+	private void add(final int row, final int column, final double realPart, final double imaginaryPart) {
+		real[row * columns + column] += realPart;
+		imaginary[row * columns + column] += imaginaryPart;
+	}
+
+	/**
+	 * @param workPerRow The number of complex multiplications in each row.
+	 * @return The number of rows below which a product stays on the calling
+	 *         thread, so each task does about as much work as a large gate kernel.
+	 */
+	private static int getGrain(final long workPerRow) {
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, QuantumSimulator.getParallelThreshold() / workPerRow));
+	}
+}
@@ -2,6 +2,7 @@ package model;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
@@ -16,6 +17,10 @@ public class ControlledQuantumGateWithParameter implements QuantumGateWithParame
 	private static final long serialVersionUID = 746505294177134097L;
 	/** List of gates supported by this class. */
 	private static final List<String> gateTypes = new ArrayList<>(Arrays.asList("CRx", "CRy", "CRz", "C0Rx", "C0Ry", "C0Rz"));
+	/** Mask of the control wires, bit n for wire n. */
+	private final long controls;
+	/** Mask of the values the control wires need to hold, bit n for wire n. */
+	private final long controlValues;
 	/** The gate type as a string. Should be filtered through the list above. */
 	private final String gateType;
 	/** The horizontal position of this gate on the circuit. Zero based. */
@@ -25,10 +30,14 @@ public class ControlledQuantumGateWithParameter implements QuantumGateWithParame
 	 * controls.
 	 */
 	private final List<Integer> wires;
+	/** The target wire. */
+	private final int target;
 	/**
 	 * The value associated with this quantum gate.
 	 */
 	private final double value;
+	/** The primitive target matrix, shared through the gate matrix cache on first use. */
+	private transient volatile double[] primitiveTargetMatrix;
 
 	/**
 	 * Constructor.
@@ -41,14 +50,29 @@ public class ControlledQuantumGateWithParameter implements QuantumGateWithParame
 	 */
 	public ControlledQuantumGateWithParameter(final String type, final double value, final int gatePosition,
 			final List<Integer> wires) {
-		if (gateTypes.contains(type)) {
-			gateType = type;
-			this.value = value;
-			this.gatePosition = gatePosition;
-			this.wires = wires;
-		} else {
+		if (!gateTypes.contains(type)) {
 			throw new IllegalArgumentException("That gate type is not supported.");
 		}
+		if (wires.size() != QuantumGate.getNumberOfControls(type) + 1
+				|| wires.stream().distinct().count() != wires.size()) {
+			throw new IllegalArgumentException("The gate needs a distinct wire for every control and the target.");
+		}
+		// the control masks hold one bit per wire.
+		if (wires.stream().anyMatch(x -> x < 0 || x >= Long.SIZE)) {
+			throw new IllegalArgumentException("Controlled gates can only use the first " + Long.SIZE + " wires.");
+		}
+		gateType = type;
+		this.value = value;
+		this.gatePosition = gatePosition;
+		this.wires = wires;
+		long controlMask = 0;
+		for (int n = 0; n < wires.size() - 1; ++n) {
+			controlMask |= 1L << wires.get(n);
+		}
+		controls = controlMask;
+		// the zero controlled gates (C0NOT, CC00H, ...) fire when every control is |0>
+		controlValues = type.contains("0") ? 0 : controlMask;
+		target = wires.get(wires.size() - 1);
 	}
 
 	/**
@@ -61,187 +85,89 @@ public class ControlledQuantumGateWithParameter implements QuantumGateWithParame
 	}
 
 	/**
-	 * Get the gate matrix for each gate. Must be done for each gate you accept as
-	 * well as each wire configuration you wish to support for each gate.
+	 * @return The matrix over every wire from the first to the last wire of this
+	 *         gate. Any placement of the controls and target is supported, but
+	 *         the size grows with the distance between them, so simulation uses
+	 *         the control masks and target matrix instead.
 	 */
 	@Override
 	public Complex[][] getGateMatrix() {
-		switch (gateType) {
-		case "CRx":
-			if (wires.get(0) < wires.get(1)) {
-				int size = (int) Math.pow(2, wires.get(1) - wires.get(0) + 1);
-				Complex[][] returnGate = new Complex[size][size];
-				for (int row = 0; row < size; ++row) {
-					for (int col = 0; col < size; ++col) {
-						// build the diagonal on 3/4 of the grid.
-						if (row < size / 2 || col < size / 2) {
-							if (row == col) {
-								returnGate[row][col] = new Complex(1);
-							} else {
-								returnGate[row][col] = new Complex(0);
-							}
-						} else {
-							if (Math.abs(row - col) == 1 && Math.min(row, col) % 2 == 0) {
-								returnGate[row][col] = new Complex(0, -Math.sin(value / 2));
-							} else if (row == col) {
-								returnGate[row][col] = new Complex(Math.cos(value / 2));
-							} else
-								returnGate[row][col] = new Complex(0);
-						}
-					}
-				}
-				return returnGate;
-			}
-			throw new UnsupportedOperationException("Gate not implemented yet!");
-		case "CRy":
-			if (wires.get(0) < wires.get(1)) {
-				int size = (int) Math.pow(2, wires.get(1) - wires.get(0) + 1);
-				Complex[][] returnGate = new Complex[size][size];
-				for (int row = 0; row < size; ++row) {
-					for (int col = 0; col < size; ++col) {
-						// build the diagonal on 3/4 of the grid.
-						if (row < size / 2 || col < size / 2) {
-							if (row == col) {
-								returnGate[row][col] = new Complex(1);
-							} else {
-								returnGate[row][col] = new Complex(0);
-							}
-						} else {
-							if (row - col == -1 && Math.min(row, col) % 2 == 0) {
-								returnGate[row][col] = new Complex(-Math.sin(value / 2));
-							} else if (row - col == 1 && Math.min(row, col) % 2 == 0) {
-								returnGate[row][col] = new Complex(Math.sin(value / 2));
-							} else if (row == col) {
-								returnGate[row][col] = new Complex(Math.cos(value / 2));
-							} else {
-								returnGate[row][col] = new Complex(0);
-							}
-						}
-					}
-				}
-				return returnGate;
-			}
-			throw new UnsupportedOperationException("Gate not implemented yet!");
-		case "CRz":
-			if (wires.get(0) < wires.get(1)) {
-				int size = (int) Math.pow(2, wires.get(1) - wires.get(0) + 1);
-				Complex[][] returnGate = new Complex[size][size];
-				for (int row = 0; row < size; ++row) {
-					for (int col = 0; col < size; ++col) {
-						// build the diagonal on 3/4 of the grid.
-						if (row < size / 2 || col < size / 2) {
-							if (row == col) {
-								returnGate[row][col] = new Complex(1);
-							} else {
-								returnGate[row][col] = new Complex(0);
-							}
-						} else {
-							if (row == col) {
-								if (row % 2 == 0) {
-									returnGate[row][col] = new Complex(Math.cos(value / 2), -Math.sin(value / 2));
-								} else {
-									returnGate[row][col] = new Complex(Math.cos(value / 2), Math.sin(value / 2));
-								}
-							} else
-								returnGate[row][col] = new Complex(0);
-						}
-					}
-				}
-				return returnGate;
-			}
-			throw new UnsupportedOperationException("Gate not implemented yet!");
-		case "C0Rx":
-			if (wires.get(0) < wires.get(1)) {
-				int size = (int) Math.pow(2, wires.get(1) - wires.get(0) + 1);
-				Complex[][] returnGate = new Complex[size][size];
-				for (int row = 0; row < size; ++row) {
-					for (int col = 0; col < size; ++col) {
-						// build the diagonal on 3/4 of the grid.
-						if (row >= size / 2 || col >= size / 2) {
-							if (row == col) {
-								returnGate[row][col] = new Complex(1);
-							} else {
-								returnGate[row][col] = new Complex(0);
-							}
-						} else {
-							if (Math.abs(row - col) == 1 && Math.min(row, col) % 2 == 0) {
-								returnGate[row][col] = new Complex(0, -Math.sin(value / 2));
-							} else if (row == col) {
-								returnGate[row][col] = new Complex(Math.cos(value / 2));
-							} else
-								returnGate[row][col] = new Complex(0);
-						}
-					}
-				}
-				return returnGate;
-			}
-			throw new UnsupportedOperationException("Gate not implemented yet!");
-		case "C0Ry":
-			if (wires.get(0) < wires.get(1)) {
-				int size = (int) Math.pow(2, wires.get(1) - wires.get(0) + 1);
-				Complex[][] returnGate = new Complex[size][size];
-				for (int row = 0; row < size; ++row) {
-					for (int col = 0; col < size; ++col) {
-						// build the diagonal on 3/4 of the grid.
-						if (row >= size / 2 || col >= size / 2) {
-							if (row == col) {
-								returnGate[row][col] = new Complex(1);
-							} else {
-								returnGate[row][col] = new Complex(0);
-							}
-						} else {
-							if (row - col == -1 && Math.min(row, col) % 2 == 0) {
-								returnGate[row][col] = new Complex(-Math.sin(value / 2));
-							} else if (row - col == 1 && Math.min(row, col) % 2 == 0) {
-								returnGate[row][col] = new Complex(Math.sin(value / 2));
-							} else if (row == col) {
-								returnGate[row][col] = new Complex(Math.cos(value / 2));
-							} else {
-								returnGate[row][col] = new Complex(0);
-							}
-						}
-					}
-				}
-				for (Complex[] c : returnGate) {
-					System.out.println(Arrays.toString(c));
-				}
-				System.out.println();
-				System.out.println();
-				return returnGate;
-			}
-			throw new UnsupportedOperationException("Gate not implemented yet!");
-		case "C0Rz":
-			if (wires.get(0) < wires.get(1)) {
-				int size = (int) Math.pow(2, wires.get(1) - wires.get(0) + 1);
-				Complex[][] returnGate = new Complex[size][size];
-				for (int row = 0; row < size; ++row) {
-					for (int col = 0; col < size; ++col) {
-						// build the diagonal on 3/4 of the grid.
-						if (row >= size / 2 || col >= size / 2) {
-							if (row == col) {
-								returnGate[row][col] = new Complex(1);
-							} else {
-								returnGate[row][col] = new Complex(0);
-							}
-						} else {
-							if (row == col) {
-								if (row % 2 == 0) {
-									returnGate[row][col] = new Complex(Math.cos(value / 2), -Math.sin(value / 2));
-								} else {
-									returnGate[row][col] = new Complex(Math.cos(value / 2), Math.sin(value / 2));
-								}
-							} else
-								returnGate[row][col] = new Complex(0);
-						}
-					}
-				}
-				return returnGate;
-			}
-			throw new UnsupportedOperationException("Gate not implemented yet!");
-		default:
-			throw new UnsupportedOperationException("Gate not implemented yet!");
+		return GateMatrixCache.getGateMatrix(this,
+				() -> QuantumGate.getControlledMatrix(wires, controlValues == 0 ? 0 : 1, getTargetMatrix()));
+	}
+
+	/**
+	 * Applies the target matrix to the target wire wherever the controls fire.
+	 *
+	 * @param state The state to update.
+	 */
+	@Override
+	public void apply(final StateVector state) {
+		QuantumSimulator.applyControlled(state, target, controls, controlValues, getKind(),
+				getPrimitiveTargetMatrix());
+	}
+
+	/**
+	 * @return The shared 2x2 target matrix, looked up once per gate.
+	 */
+	@Override
+	public double[] getPrimitiveTargetMatrix() {
+		double[] returnValue = primitiveTargetMatrix;
+		if (returnValue == null) {
+			returnValue = GateMatrixCache.getTargetMatrix(this);
+			primitiveTargetMatrix = returnValue;
 		}
+		return returnValue;
+	}
+
+	/**
+	 * @return Mask of the control wires, bit n for wire n.
+	 */
+	@Override
+	public long getControls() {
+		return controls;
+	}
 
+	/**
+	 * @return Mask of the values the control wires need to hold for the gate to
+	 *         fire, bit n for wire n.
+	 */
+	@Override
+	public long getControlValues() {
+		return controlValues;
+	}
+
+	/**
+	 * @return How the gate acts on the amplitudes of a state.
+	 */
+	@Override
+	public GateKind getKind() {
+		// asked for on every application, so the type is not run through a regex.
+		return gateType.endsWith("Rz") ? GateKind.DIAGONAL : GateKind.UNITARY;
+	}
+
+	/**
+	 * @return The target wire.
+	 */
+	@Override
+	public List<Integer> getTargets() {
+		return Collections.singletonList(target);
+	}
+
+	/**
+	 * @return The 2x2 matrix applied to the target wire when the controls fire.
+	 */
+	@Override
+	public Complex[][] getTargetMatrix() {
+		return new SingleQuantumGateWithParameter(getBaseType(), value, gatePosition, Arrays.asList(target))
+				.getGateMatrix();
+	}
+
+	/**
+	 * @return The gate applied to the target wire, such as NOT for CC00NOT.
+	 */
+	private String getBaseType() {
+		return gateType.replaceAll("^C+0*", "");
 	}
 
 	/**
@@ -0,0 +1,225 @@
+package model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The state of a circuit as a density matrix, which can hold the mixed states
+ * noise leaves behind. The 2^n by 2^n matrix is stored as a state over twice as
+ * many wires, the row wires followed by the column wires, so gates run on the
+ * same parallel kernels as pure states. A gate U becomes U on the row wires and
+ * the conjugate of U on the column wires, giving U rho U^dagger in place. Noise
+ * channels become a 4x4 superoperator on a row wire and its column wire.
+ *
+ * @author cdberkstresser
+ *
+ */
+public final class DensityMatrix implements Serializable {
+	/**
+	 * The most wires a density matrix can span. One this wide takes 4 GB.
+	 */
+	public static final int MAX_QUBITS = 14;
+	/** Serializable ID. */
+	private static final long serialVersionUID = -6387059917233145826L;
+	/** The entries of the matrix. */
+	private final ComplexMatrix matrix;
+	/** The number of wires the state spans. */
+	private final int qubits;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param qubits The number of wires the state spans.
+	 * @param matrix The entries of the matrix.
+	 */
+	private DensityMatrix(final int qubits, final ComplexMatrix matrix) {
+		this.qubits = qubits;
+		this.matrix = matrix;
+	}
+
+	/**
+	 * @param state A pure state.
+	 * @return The density matrix |state><state|.
+	 */
+	public static DensityMatrix of(final StateVector state) {
+		int qubits = state.getNumberOfQubits();
+		if (qubits > MAX_QUBITS) {
+			throw new IllegalArgumentException("Density matrices can only span up to " + MAX_QUBITS + " qubits.");
+		}
+		int size = 1 << qubits;
+		double[] real = new double[size];
+		double[] imaginary = new double[size];
+		state.getAmplitudes(0, real, imaginary);
+		ComplexMatrix matrix = new ComplexMatrix(size, size);
+		QuantumSimulator.forEachRange(size, Math.max(1, QuantumSimulator.getParallelThreshold() / size),
+				(from, to) -> {
+					for (int row = from; row < to; ++row) {
+						for (int column = 0; column < size; ++column) {
+							matrix.set(row, column,
+									ComplexMath.multiplyReal(real[row], imaginary[row], real[column], -imaginary[column]),
+									ComplexMath.multiplyImaginary(real[row], imaginary[row], real[column],
+											-imaginary[column]));
+						}
+					}
+				});
+		return new DensityMatrix(qubits, matrix);
+	}
+
+	/**
+	 * Applies a run of gates and noise channels. Gates between channels are fused
+	 * first, as they are for pure states.
+	 *
+	 * @param gates The gates to apply. Gates in later columns are applied after
+	 *              gates in earlier ones.
+	 */
+	public void applyGates(final List<QuantumGate> gates) {
+		List<QuantumGate> sorted = new ArrayList<>(gates);
+		sorted.sort((x, y) -> Integer.compare(x.getGatePosition(), y.getGatePosition()));
+		List<QuantumGate> unitaries = new ArrayList<>();
+		for (QuantumGate gate : sorted) {
+			if (gate.getKind() == GateKind.CHANNEL) {
+				applyUnitaries(unitaries);
+				unitaries.clear();
+				applyChannel(gate.getWires().get(0), ((NoiseQuantumGate) gate).getKrausOperators());
+			} else {
+				unitaries.add(gate);
+			}
+		}
+		applyUnitaries(unitaries);
+	}
+
+	/**
+	 * Applies a channel to a wire as sum K rho K^dagger over its Kraus operators.
+	 *
+	 * @param wire  The wire the channel acts on.
+	 * @param kraus The Kraus operators, each a 2x2 matrix as {m00r, m00i, m01r,
+	 *              m01i, m10r, m10i, m11r, m11i}.
+	 */
+	public void applyChannel(final int wire, final List<double[]> kraus) {
+		// sum of K (x) conj(K), with the row bit as the more significant one.
+		double[] superoperator = new double[32];
+		for (double[] k : kraus) {
+			for (int row = 0; row < 4; ++row) {
+				for (int column = 0; column < 4; ++column) {
+					int left = 2 * (2 * (row >> 1) + (column >> 1));
+					int right = 2 * (2 * (row & 1) + (column & 1));
+					ComplexMath.multiplyAdd(superoperator, 2 * (4 * row + column), k[left], k[left + 1], k[right],
+							-k[right + 1]);
+				}
+			}
+		}
+		matrix.asStateVector().applyBlock(new int[] { wire, qubits + wire }, superoperator);
+	}
+
+	/**
+	 * @return A copy of this density matrix.
+	 */
+	public DensityMatrix copy() {
+		return new DensityMatrix(qubits, matrix.copy());
+	}
+
+	/**
+	 * @return The entries of the matrix. Shared, so they must not be changed.
+	 */
+	public ComplexMatrix getMatrix() {
+		return matrix;
+	}
+
+	/**
+	 * @param wires The wires to measure, the first being the most significant bit
+	 *              of the outcome.
+	 * @return The joint probability of every outcome of measuring just those
+	 *         wires, taken in one pass over the diagonal.
+	 */
+	public double[] getMarginal(final int... wires) {
+		StateVector entries = matrix.asStateVector();
+		entries.checkMarginalWires(wires);
+		double[] returnValue = new double[1 << wires.length];
+		for (int index = 0; index < matrix.getRows(); ++index) {
+			returnValue[entries.getPattern((long) index << qubits, wires)] += matrix.getReal(index, index);
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @return The number of wires the state spans.
+	 */
+	public int getNumberOfQubits() {
+		return qubits;
+	}
+
+	/**
+	 * @param index The basis state index.
+	 * @return The probability of measuring the basis state.
+	 */
+	public double getProbability(final int index) {
+		return matrix.getReal(index, index);
+	}
+
+	/**
+	 * @return The purity, the trace of rho squared. One for a pure state and 1 /
+	 *         2^n for a fully mixed one.
+	 */
+	public double getPurity() {
+		double returnValue = 0;
+		for (int row = 0; row < matrix.getRows(); ++row) {
+			for (int column = 0; column < matrix.getColumns(); ++column) {
+				returnValue += ComplexMath.norm(matrix.getReal(row, column), matrix.getImaginary(row, column));
+			}
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @param wire The wire to measure.
+	 * @return The probability of measuring one on the wire.
+	 */
+	public double getWireProbability(final int wire) {
+		int bit = 1 << (qubits - 1 - wire);
+		double returnValue = 0;
+		for (int index = 0; index < matrix.getRows(); ++index) {
+			if ((index & bit) != 0) {
+				returnValue += matrix.getReal(index, index);
+			}
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @return The probability of each wire measuring one, all taken in one pass
+	 *         over the diagonal.
+	 */
+	public double[] getWireProbabilities() {
+		double[] returnValue = new double[qubits];
+		for (int index = 0; index < matrix.getRows(); ++index) {
+			double probability = matrix.getReal(index, index);
+			for (int remaining = index; remaining != 0; remaining &= remaining - 1) {
+				returnValue[qubits - 1 - Integer.numberOfTrailingZeros(remaining)] += probability;
+			}
+		}
+		return returnValue;
+	}
+
+	/**
+	 * Applies unitary gates as U rho U^dagger.
+	 *
+	 * @param gates The gates to apply, in order.
+	 */
+	private void applyUnitaries(final List<QuantumGate> gates) {
+		StateVector entries = matrix.asStateVector();
+		for (QuantumGate gate : GateFusion.fuse(gates, QuantumSimulator.getFusionQubits())) {
+			QuantumSimulator.applyGate(entries, gate);
+			if (gate instanceof FusedQuantumGate) {
+				((FusedQuantumGate) gate).conjugate(qubits).apply(entries);
+			} else {
+				double[] conjugate = gate.getPrimitiveTargetMatrix().clone();
+				for (int n = 1; n < conjugate.length; n += 2) {
+					conjugate[n] = -conjugate[n];
+				}
+				QuantumSimulator.applyControlled(entries, qubits + gate.getTargets().get(0),
+						gate.getControls() << qubits, gate.getControlValues() << qubits, gate.getKind(), conjugate);
+			}
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Several gates multiplied together into one matrix over the wires they touch.
+ * When every gate is diagonal only the diagonal is kept, as a table of phases
+ * indexed by the bits of the wires. Produced by {@link GateFusion} and never
+ * placed on a circuit.
+ *
+ * @author cdberkstresser
+ *
+ */
+final class FusedQuantumGate implements QuantumGate {
+	/** Serializable ID. */
+	private static final long serialVersionUID = 3946373050939727101L;
+	/** Whether only the diagonal of the matrix is stored. */
+	private final boolean diagonal;
+	/** The horizontal position of the first fused gate. */
+	private final int gatePosition;
+	/**
+	 * The matrix over the wires, interleaved real and imaginary parts in row major
+	 * order, or just its diagonal. The first wire is the most significant bit of a
+	 * row or column.
+	 */
+	private final double[] matrix;
+	/** The wires the matrix acts on. */
+	private final int[] wires;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param gatePosition The horizontal position of the first fused gate.
+	 * @param wires        The wires the matrix acts on.
+	 * @param matrix       The matrix over the wires.
+	 * @param diagonal     Whether the matrix only holds the diagonal.
+	 */
+	FusedQuantumGate(final int gatePosition, final int[] wires, final double[] matrix, final boolean diagonal) {
+		this.diagonal = diagonal;
+		this.gatePosition = gatePosition;
+		this.wires = wires;
+		this.matrix = matrix;
+	}
+
+	/**
+	 * Applies the fused matrix to the state.
+	 *
+	 * @param state The state to update.
+	 */
+	@Override
+	public void apply(final StateVector state) {
+		if (diagonal) {
+			state.applyDiagonal(wires, matrix);
+		} else if (wires.length == 1 && QuantumSimulator.isNot(matrix)) {
+			state.applyNot(wires[0], 0, 0);
+		} else if (wires.length == 1) {
+			state.applyMatrix(wires[0], 0, 0, matrix);
+		} else {
+			state.applyBlock(wires, matrix);
+		}
+	}
+
+	/**
+	 * @param offset The number of wires to move the gate down by.
+	 * @return The complex conjugate of this gate on the wires that many further
+	 *         down, which multiplies the columns of a density matrix by the
+	 *         adjoint.
+	 */
+	FusedQuantumGate conjugate(final int offset) {
+		double[] conjugated = matrix.clone();
+		for (int n = 1; n < conjugated.length; n += 2) {
+			conjugated[n] = -conjugated[n];
+		}
+		return new FusedQuantumGate(gatePosition, Arrays.stream(wires).map(x -> x + offset).toArray(), conjugated,
+				diagonal);
+	}
+
+	/**
+	 * @return How the gate acts on the amplitudes of a state.
+	 */
+	@Override
+	public GateKind getKind() {
+		if (diagonal) {
+			return GateKind.DIAGONAL;
+		}
+		return wires.length == 1 && QuantumSimulator.isNot(matrix) ? GateKind.PERMUTATION : GateKind.UNITARY;
+	}
+
+	/**
+	 * Compares two gates.
+	 */
+	@Override
+	public int compareTo(final QuantumGate arg0) {
+		return this.getWires().stream().min(Comparator.naturalOrder()).orElse(0)
+				- arg0.getWires().stream().min(Comparator.naturalOrder()).orElse(0);
+	}
+
+	/**
+	 * @return The fused matrix over the wires of this gate, in the order they are
+	 *         listed rather than spanning every wire in between.
+	 */
+	@Override
+	public Complex[][] getGateMatrix() {
+		int size = 1 << wires.length;
+		Complex[][] returnValue = new Complex[size][size];
+		for (int row = 0; row < size; ++row) {
+			for (int col = 0; col < size; ++col) {
+				if (!diagonal) {
+					returnValue[row][col] = new Complex(matrix[2 * (row * size + col)],
+							matrix[2 * (row * size + col) + 1]);
+				} else {
+					returnValue[row][col] = row == col ? new Complex(matrix[2 * row], matrix[2 * row + 1]) : new Complex();
+				}
+			}
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @return the horizontal gate position in the circuit.
+	 */
+	@Override
+	public int getGatePosition() {
+		return gatePosition;
+	}
+
+	/**
+	 * @return The gate type.
+	 */
+	@Override
+	public String getGateType() {
+		return "FUSED";
+	}
+
+	/**
+	 * @return the wires associated with this gate.
+	 */
+	@Override
+	public List<Integer> getWires() {
+		return Collections.unmodifiableList(Arrays.stream(wires).boxed().collect(Collectors.toList()));
+	}
+
+	/**
+	 * @return a string representation of this gate.
+	 */
+	@Override
+	public String toString() {
+		return getGateType() + Arrays.toString(wires);
+	}
+}
@@ -0,0 +1,204 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Compiles a run of gates into fewer, larger operations before they are
+ * simulated. Every run of single qubit gates on a wire is multiplied into one
+ * 2x2 matrix, runs of diagonal operations become a single pass of phases, and
+ * neighbouring operations can optionally be merged into a dense block over a
+ * few wires so the state is swept fewer times.
+ *
+ * @author cdberkstresser
+ *
+ */
+final class GateFusion {
+	/** The most wires a fused block may span. */
+	static final int MAX_BLOCK_QUBITS = 4;
+	/** The most wires a merged run of diagonal gates may span. */
+	static final int MAX_PHASE_QUBITS = 14;
+
+	/**
+	 * Utility class.
+	 */
+	private GateFusion() {
+	}
+
+	/**
+	 * @param gates      The gates to compile, in any order. Gates in later
+	 *                   columns are applied after gates in earlier ones.
+	 * @param maxQubits  The most wires a fused block may span. One only fuses
+	 *                   single qubit gates on the same wire.
+	 * @return Operations with the same overall effect as the gates, in the order
+	 *         to apply them. Gates that could not be merged with anything are
+	 *         passed through unchanged.
+	 */
+	static List<QuantumGate> fuse(final List<QuantumGate> gates, final int maxQubits) {
+		if (maxQubits < 1 || maxQubits > MAX_BLOCK_QUBITS) {
+			throw new IllegalArgumentException("Fused blocks must span between 1 and " + MAX_BLOCK_QUBITS + " wires.");
+		}
+		List<QuantumGate> sorted = new ArrayList<>(gates);
+		sorted.sort(Comparator.comparingInt(QuantumGate::getGatePosition));
+
+		// single qubit gates wait on their wire until something else touches it.
+		Map<Integer, List<QuantumGate>> pending = new TreeMap<>();
+		List<List<QuantumGate>> groups = new ArrayList<>();
+		for (QuantumGate gate : sorted) {
+			if (gate.getWires().size() == 1) {
+				pending.computeIfAbsent(gate.getWires().get(0), x -> new ArrayList<>()).add(gate);
+			} else {
+				for (int wire : gate.getWires()) {
+					List<QuantumGate> run = pending.remove(wire);
+					if (run != null) {
+						groups.add(run);
+					}
+				}
+				List<QuantumGate> group = new ArrayList<>();
+				group.add(gate);
+				groups.add(group);
+			}
+		}
+		groups.addAll(pending.values());
+
+		groups = mergeDiagonals(groups);
+		if (maxQubits > 1) {
+			groups = mergeNeighbours(groups, maxQubits);
+		}
+
+		List<QuantumGate> returnValue = new ArrayList<>();
+		for (List<QuantumGate> group : groups) {
+			if (group.size() == 1) {
+				returnValue.add(group.get(0));
+			} else if (group.stream().allMatch(x -> x.getKind() == GateKind.DIAGONAL)) {
+				returnValue.add(toPhaseGate(group));
+			} else {
+				returnValue.add(toFusedGate(group));
+			}
+		}
+		return returnValue;
+	}
+
+	/**
+	 * Merges consecutive groups of diagonal gates. Diagonal gates commute, so the
+	 * whole run only needs one pass over the state.
+	 *
+	 * @param groups The groups in the order they are applied.
+	 * @return The merged groups.
+	 */
+	private static List<List<QuantumGate>> mergeDiagonals(final List<List<QuantumGate>> groups) {
+		List<List<QuantumGate>> returnValue = new ArrayList<>();
+		List<QuantumGate> current = null;
+		TreeSet<Integer> currentWires = new TreeSet<>();
+		for (List<QuantumGate> group : groups) {
+			if (!group.stream().allMatch(x -> x.getKind() == GateKind.DIAGONAL)) {
+				current = null;
+				returnValue.add(group);
+				continue;
+			}
+			TreeSet<Integer> union = new TreeSet<>(currentWires);
+			group.forEach(x -> union.addAll(x.getWires()));
+			if (current != null && union.size() <= MAX_PHASE_QUBITS) {
+				current.addAll(group);
+				currentWires = union;
+			} else {
+				current = new ArrayList<>(group);
+				currentWires = new TreeSet<>();
+				for (QuantumGate gate : group) {
+					currentWires.addAll(gate.getWires());
+				}
+				returnValue.add(current);
+			}
+		}
+		return returnValue;
+	}
+
+	/**
+	 * Greedily merges consecutive groups while the wires they touch fit in a
+	 * block.
+	 *
+	 * @param groups    The groups in the order they are applied.
+	 * @param maxQubits The most wires a merged group may touch.
+	 * @return The merged groups.
+	 */
+	private static List<List<QuantumGate>> mergeNeighbours(final List<List<QuantumGate>> groups,
+			final int maxQubits) {
+		List<List<QuantumGate>> returnValue = new ArrayList<>();
+		List<QuantumGate> current = null;
+		TreeSet<Integer> currentWires = new TreeSet<>();
+		for (List<QuantumGate> group : groups) {
+			TreeSet<Integer> union = new TreeSet<>(currentWires);
+			group.forEach(x -> union.addAll(x.getWires()));
+			if (current != null && union.size() <= maxQubits) {
+				current.addAll(group);
+				currentWires = union;
+			} else {
+				current = new ArrayList<>(group);
+				currentWires = new TreeSet<>();
+				for (QuantumGate gate : group) {
+					currentWires.addAll(gate.getWires());
+				}
+				returnValue.add(current);
+			}
+		}
+		return returnValue;
+	}
+
+	/**
+	 * Multiplies a group of gates into one matrix by running each basis state of
+	 * the wires they touch through the gates.
+	 *
+	 * @param group The gates in the order they are applied.
+	 * @return A single gate with the same effect.
+	 */
+	private static FusedQuantumGate toFusedGate(final List<QuantumGate> group) {
+		TreeSet<Integer> wireSet = new TreeSet<>();
+		group.forEach(x -> wireSet.addAll(x.getWires()));
+		int[] wires = wireSet.stream().mapToInt(Integer::intValue).toArray();
+		int size = 1 << wires.length;
+		double[] matrix = new double[2 * size * size];
+		for (int column = 0; column < size; ++column) {
+			StateVector local = new HeapStateVector(wires.length);
+			local.setAmplitude(0, 0, 0);
+			local.setAmplitude(column, 1, 0);
+			for (QuantumGate gate : group) {
+				QuantumSimulator.applyGate(local, gate, x -> wireSet.headSet(x).size());
+			}
+			for (int row = 0; row < size; ++row) {
+				matrix[2 * (row * size + column)] = local.getReal(row);
+				matrix[2 * (row * size + column) + 1] = local.getImaginary(row);
+			}
+		}
+		return new FusedQuantumGate(group.get(0).getGatePosition(), wires, matrix, false);
+	}
+
+	/**
+	 * Multiplies a group of diagonal gates into one table of phases by running a
+	 * state with every amplitude set to one through the gates.
+	 *
+	 * @param group The diagonal gates.
+	 * @return A single gate with the same effect.
+	 */
+	private static FusedQuantumGate toPhaseGate(final List<QuantumGate> group) {
+		TreeSet<Integer> wireSet = new TreeSet<>();
+		group.forEach(x -> wireSet.addAll(x.getWires()));
+		int[] wires = wireSet.stream().mapToInt(Integer::intValue).toArray();
+		StateVector local = new HeapStateVector(wires.length);
+		for (int n = 0; n < local.size(); ++n) {
+			local.setAmplitude(n, 1, 0);
+		}
+		for (QuantumGate gate : group) {
+			QuantumSimulator.applyGate(local, gate, x -> wireSet.headSet(x).size());
+		}
+		double[] phases = new double[2 * (int) local.size()];
+		for (int n = 0; n < local.size(); ++n) {
+			phases[2 * n] = local.getReal(n);
+			phases[2 * n + 1] = local.getImaginary(n);
+		}
+		return new FusedQuantumGate(group.get(0).getGatePosition(), wires, phases, true);
+	}
+}
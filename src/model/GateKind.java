@@ -0,0 +1,22 @@
+package model;
+
+/**
+ * How a gate acts on the amplitudes of a state, so simulation can pick the
+ * cheapest way to apply it.
+ *
+ * @author cdberkstresser
+ *
+ */
+public enum GateKind {
+	/** Only changes the phase of each basis state, such as Z, S, T and Rz. */
+	DIAGONAL,
+	/** Only swaps amplitudes between basis states, such as X and the NOT gates. */
+	PERMUTATION,
+	/** Mixes amplitudes, such as H, Rx and Ry. */
+	UNITARY,
+	/**
+	 * Not unitary. Mixes the state with others, such as noise, so only a density
+	 * matrix can carry it.
+	 */
+	CHANNEL
+}
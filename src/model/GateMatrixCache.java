@@ -0,0 +1,211 @@
+package model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Application wide cache of gate matrices, keyed by gate type, parameter and
+ * wire layout, so the trig calls and span sized matrices behind them are only
+ * built once across every session. The least recently used matrices are
+ * evicted once the cache holds more matrix cells than its budget. Gates keep
+ * their target matrix once looked up, so simulation does not come back here
+ * for every gate it applies.
+ *
+ * @author cdberkstresser
+ *
+ */
+public final class GateMatrixCache {
+	/** Identifies a cached matrix. */
+	private static final class Key {
+		/** The gate type. */
+		private final String gateType;
+		/** The bits of the gate parameter, or zero for gates without one. */
+		private final long parameter;
+		/** Whether this is the 2x2 target matrix rather than the full matrix. */
+		private final boolean target;
+		/**
+		 * The wires of the gate, or empty for target matrices and gates on a single
+		 * wire, whose matrices do not depend on them.
+		 */
+		private final List<Integer> wires;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param gate   The gate whose matrix is cached.
+		 * @param target Whether this is the 2x2 target matrix rather than the full
+		 *               matrix.
+		 */
+		Key(final QuantumGate gate, final boolean target) {
+			this.gateType = gate.getGateType();
+			this.parameter = gate instanceof QuantumGateWithParameter
+					? Double.doubleToLongBits(((QuantumGateWithParameter) gate).getValue())
+					: 0;
+			this.target = target;
+			this.wires = target || gate.getWires().size() == 1 ? Collections.emptyList() : gate.getWires();
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return gateType.equals(other.gateType) && parameter == other.parameter && target == other.target
+					&& wires.equals(other.wires);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(gateType, parameter, target, wires);
+		}
+	}
+
+	/** The cached matrices, least recently used first. */
+	private static final LinkedHashMap<Key, Object> CACHE = new LinkedHashMap<>(64, 0.75f, true);
+
+	/**
+	 * The most matrix cells the cache holds. Defaults to the
+	 * quantum.gateCacheCells system property.
+	 */
+	private static int capacity = Math.max(0, Integer.getInteger("quantum.gateCacheCells", 1 << 20));
+
+	/** The number of matrix cells currently cached. */
+	private static long cells;
+
+	/** The number of lookups answered from the cache. */
+	private static long hits;
+
+	/** The number of lookups that had to build the matrix. */
+	private static long misses;
+
+	/**
+	 * Utility class.
+	 */
+	private GateMatrixCache() {
+	}
+
+	/**
+	 * Empties the cache and resets the counters.
+	 */
+	public static synchronized void clear() {
+		CACHE.clear();
+		cells = 0;
+		hits = 0;
+		misses = 0;
+	}
+
+	/**
+	 * @return The most matrix cells the cache holds.
+	 */
+	public static synchronized int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return The number of lookups answered from the cache.
+	 */
+	public static synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of lookups that had to build the matrix.
+	 */
+	public static synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return The number of matrices cached.
+	 */
+	public static synchronized int getSize() {
+		return CACHE.size();
+	}
+
+	/**
+	 * @param capacity The most matrix cells the cache holds.
+	 */
+	public static synchronized void setCapacity(final int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("The cache capacity can not be negative.");
+		}
+		GateMatrixCache.capacity = capacity;
+		evict();
+	}
+
+	/**
+	 * @param gate    The gate whose matrix to get.
+	 * @param builder Builds the full matrix of the gate on a miss.
+	 * @return A copy of the rows of the shared matrix. The complex numbers
+	 *         themselves are immutable and shared.
+	 */
+	static Complex[][] getGateMatrix(final QuantumGate gate, final Supplier<Complex[][]> builder) {
+		Complex[][] matrix = (Complex[][]) get(new Key(gate, false), builder);
+		return Arrays.stream(matrix).map(Complex[]::clone).toArray(Complex[][]::new);
+	}
+
+	/**
+	 * @param gate The gate whose target matrix to get. Gates call this once and
+	 *             keep the result.
+	 * @return The shared 2x2 target matrix as {m00r, m00i, m01r, m01i, m10r, m10i,
+	 *         m11r, m11i}. Callers must not change it.
+	 */
+	static double[] getTargetMatrix(final QuantumGate gate) {
+		return (double[]) get(new Key(gate, true), () -> QuantumSimulator.toPrimitive(gate.getTargetMatrix()));
+	}
+
+	/**
+	 * @param key     The key of the matrix.
+	 * @param builder Builds the matrix on a miss.
+	 * @return The cached or newly built matrix.
+	 */
+	private static Object get(final Key key, final Supplier<?> builder) {
+		synchronized (GateMatrixCache.class) {
+			Object cached = CACHE.get(key);
+			if (cached != null) {
+				++hits;
+				return cached;
+			}
+			++misses;
+		}
+		// build outside the lock so a large matrix does not hold up other sessions.
+		Object built = builder.get();
+		long weight = weigh(built);
+		synchronized (GateMatrixCache.class) {
+			if (weight <= capacity && CACHE.putIfAbsent(key, built) == null) {
+				cells += weight;
+				evict();
+			}
+		}
+		return built;
+	}
+
+	/**
+	 * Drops the least recently used matrices until the cache is within budget.
+	 */
+	private static void evict() {
+		Iterator<Map.Entry<Key, Object>> entries = CACHE.entrySet().iterator();
+		while (cells > capacity && entries.hasNext()) {
+			cells -= weigh(entries.next().getValue());
+			entries.remove();
+		}
+	}
+
+	/**
+	 * @param matrix A cached matrix.
+	 * @return The number of complex cells in the matrix.
+	 */
+	private static long weigh(final Object matrix) {
+		if (matrix instanceof double[]) {
+			return ((double[]) matrix).length / 2;
+		}
+		return (long) ((Complex[][]) matrix).length * ((Complex[][]) matrix).length;
+	}
+}
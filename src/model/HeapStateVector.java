@@ -0,0 +1,257 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * A state whose amplitudes are stored as primitive arrays on the heap.
+ *
+ * @author cdberkstresser
+ *
+ */
+final class HeapStateVector extends StateVector {
+	/** The largest register whose amplitudes fit in a Java array. */
+	static final int MAX_QUBITS = 30;
+	/** The number of low index bits whose phase table patterns are precomputed. */
+	private static final int PATTERN_BITS = 12;
+	/** Serializable ID. */
+	private static final long serialVersionUID = 2160338305516658406L;
+	/** The imaginary parts of the amplitudes. */
+	private final double[] imaginary;
+	/** The real parts of the amplitudes. */
+	private final double[] real;
+
+	/**
+	 * Constructor. Defaults to |00...0>.
+	 *
+	 * @param numberOfQubits The number of wires this state spans.
+	 */
+	HeapStateVector(final int numberOfQubits) {
+		super(numberOfQubits);
+		real = new double[1 << numberOfQubits];
+		imaginary = new double[1 << numberOfQubits];
+		real[0] = 1;
+	}
+
+	/**
+	 * Constructor. Shares the arrays rather than copying them.
+	 *
+	 * @param numberOfQubits The number of wires this state spans.
+	 * @param real           The real parts of the amplitudes.
+	 * @param imaginary      The imaginary parts of the amplitudes.
+	 */
+	HeapStateVector(final int numberOfQubits, final double[] real, final double[] imaginary) {
+		super(numberOfQubits);
+		this.real = real;
+		this.imaginary = imaginary;
+	}
+
+	/**
+	 * Copy constructor.
+	 *
+	 * @param other The state to copy.
+	 */
+	private HeapStateVector(final HeapStateVector other) {
+		super(other.getNumberOfQubits());
+		real = other.real.clone();
+		imaginary = other.imaginary.clone();
+	}
+
+	@Override
+	public StateVector copy() {
+		return new HeapStateVector(this);
+	}
+
+	@Override
+	public void getAmplitudes(final long from, final double[] realDestination,
+			final double[] imaginaryDestination) {
+		System.arraycopy(real, (int) from, realDestination, 0, realDestination.length);
+		System.arraycopy(imaginary, (int) from, imaginaryDestination, 0, imaginaryDestination.length);
+	}
+
+	@Override
+	public double getImaginary(final long index) {
+		return imaginary[(int) index];
+	}
+
+	@Override
+	public double getProbability(final long index) {
+		return ComplexMath.norm(real[(int) index], imaginary[(int) index]);
+	}
+
+	@Override
+	public double getReal(final long index) {
+		return real[(int) index];
+	}
+
+	/**
+	 * Applies a 2x2 matrix to the target wire of every basis state whose control
+	 * wires hold the requested values.
+	 *
+	 * @param target        The target wire.
+	 * @param controls      Mask of the control wires, bit n for wire n.
+	 * @param controlValues Mask of the values the control wires need to hold.
+	 * @param matrix        The 2x2 matrix as {m00r, m00i, m01r, m01i, m10r, m10i,
+	 *                      m11r, m11i}.
+	 */
+	@Override
+	void applyMatrix(final int target, final long controls, final long controlValues, final double[] matrix) {
+		int stride = (int) getBit(target);
+		int controlMask = (int) getIndexMask(controls);
+		int controlBits = (int) getIndexMask(controlValues);
+		// controls below the target split the runs of pairs that fire.
+		int below = controlMask & (stride - 1);
+		int runLength = below == 0 ? stride : Integer.lowestOneBit(below);
+		AmplitudeKernel kernel = QuantumSimulator.getKernel();
+		boolean diagonal = matrix[2] == 0 && matrix[3] == 0 && matrix[4] == 0 && matrix[5] == 0;
+		// every pair of amplitudes differing only in the target bit is independent.
+		QuantumSimulator.forEachRange(real.length / 2, (from, to) -> {
+			for (int pair = from; pair < to;) {
+				int zero = insertZeroBit(pair, stride);
+				int run = Math.min(to - pair, runLength - (pair & (runLength - 1)));
+				if ((zero & controlMask) == controlBits) {
+					if (!diagonal) {
+						kernel.applyMatrix(real, imaginary, zero, zero + stride, run, matrix);
+					} else {
+						if (matrix[0] != 1 || matrix[1] != 0) {
+							kernel.applyPhase(real, imaginary, zero, run, matrix[0], matrix[1]);
+						}
+						if (matrix[6] != 1 || matrix[7] != 0) {
+							kernel.applyPhase(real, imaginary, zero + stride, run, matrix[6], matrix[7]);
+						}
+					}
+				}
+				pair += run;
+			}
+		});
+	}
+
+	@Override
+	void applyNot(final int target, final long controls, final long controlValues) {
+		int stride = (int) getBit(target);
+		int controlMask = (int) getIndexMask(controls);
+		int controlBits = (int) getIndexMask(controlValues);
+		// controls below the target split the runs down to single pairs.
+		int below = controlMask & (stride - 1);
+		int runLength = below == 0 ? stride : Integer.lowestOneBit(below);
+		QuantumSimulator.forEachRange(real.length / 2, (from, to) -> {
+			for (int pair = from; pair < to;) {
+				int zero = insertZeroBit(pair, stride);
+				int run = Math.min(to - pair, runLength - (pair & (runLength - 1)));
+				if ((zero & controlMask) == controlBits) {
+					for (int n = zero, end = zero + run; n < end; ++n) {
+						double swap = real[n];
+						real[n] = real[n + stride];
+						real[n + stride] = swap;
+						swap = imaginary[n];
+						imaginary[n] = imaginary[n + stride];
+						imaginary[n + stride] = swap;
+					}
+				}
+				pair += run;
+			}
+		});
+	}
+
+	@Override
+	void applyBlock(final int[] wires, final double[] matrix) {
+		int size = 1 << wires.length;
+		int[] offsets = Arrays.stream(getBlockOffsets(wires)).mapToInt(x -> (int) x).toArray();
+		int[] bits = Arrays.stream(wires).map(x -> (int) getBit(x)).sorted().toArray();
+		double[] matrixR = new double[size * size];
+		double[] matrixI = new double[size * size];
+		for (int n = 0; n < matrixR.length; ++n) {
+			matrixR[n] = matrix[2 * n];
+			matrixI[n] = matrix[2 * n + 1];
+		}
+		QuantumSimulator.forEachRange(real.length >> wires.length, (from, to) -> {
+			double[] inR = new double[size];
+			double[] inI = new double[size];
+			for (int group = from; group < to; ++group) {
+				int first = group;
+				for (int bit : bits) {
+					first = insertZeroBit(first, bit);
+				}
+				for (int n = 0; n < size; ++n) {
+					inR[n] = real[first + offsets[n]];
+					inI[n] = imaginary[first + offsets[n]];
+				}
+				for (int row = 0, m = 0; row < size; ++row) {
+					double sumR = 0;
+					double sumI = 0;
+					for (int n = 0; n < size; ++n, ++m) {
+						sumR += matrixR[m] * inR[n] - matrixI[m] * inI[n];
+						sumI += matrixR[m] * inI[n] + matrixI[m] * inR[n];
+					}
+					real[first + offsets[row]] = sumR;
+					imaginary[first + offsets[row]] = sumI;
+				}
+			}
+		});
+	}
+
+	@Override
+	void applyDiagonal(final int[] wires, final double[] phases) {
+		// the table index is looked up separately for the low and high index bits.
+		int lowBits = Math.min(getNumberOfQubits(), PATTERN_BITS);
+		int lowMask = (1 << lowBits) - 1;
+		int[] lowPatterns = new int[1 << lowBits];
+		for (int n = 0; n < lowPatterns.length; ++n) {
+			lowPatterns[n] = getPattern(n, wires);
+		}
+		int[] highPatterns = new int[real.length >> lowBits];
+		for (int n = 0; n < highPatterns.length; ++n) {
+			highPatterns[n] = getPattern((long) n << lowBits, wires);
+		}
+		QuantumSimulator.forEachRange(real.length, (from, to) -> {
+			for (int index = from; index < to; ++index) {
+				int phase = 2 * (highPatterns[index >>> lowBits] | lowPatterns[index & lowMask]);
+				ComplexMath.multiply(real, imaginary, index, phases[phase], phases[phase + 1]);
+			}
+		});
+	}
+
+	/**
+	 * @param wire The wire whose probability to get.
+	 * @return The probability of the wire measuring one.
+	 */
+	@Override
+	double getWireProbability(final int wire) {
+		int bit = (int) getBit(wire);
+		AmplitudeKernel kernel = QuantumSimulator.getKernel();
+		double returnValue = 0;
+		// the indices with the bit set come in runs as long as the bit itself.
+		for (int one = bit; one < real.length; one += 2 * bit) {
+			returnValue += kernel.sumProbabilities(real, imaginary, one, bit);
+		}
+		return returnValue;
+	}
+
+	@Override
+	double[] getWireCoherence(final int wire) {
+		int bit = (int) getBit(wire);
+		double sumR = 0;
+		double sumI = 0;
+		for (int zero = 0; zero < real.length; zero += 2 * bit) {
+			for (int n = zero, end = zero + bit; n < end; ++n) {
+				sumR += ComplexMath.multiplyReal(real[n], imaginary[n], real[n + bit], -imaginary[n + bit]);
+				sumI += ComplexMath.multiplyImaginary(real[n], imaginary[n], real[n + bit], -imaginary[n + bit]);
+			}
+		}
+		return new double[] { sumR, sumI };
+	}
+
+	@Override
+	void setAmplitude(final long index, final double real, final double imaginary) {
+		this.real[(int) index] = real;
+		this.imaginary[(int) index] = imaginary;
+	}
+
+	/**
+	 * @param pair The index of an amplitude pair.
+	 * @param bit  The bit that separates the two amplitudes of the pair.
+	 * @return The index of the amplitude of the pair with the bit clear.
+	 */
+	private static int insertZeroBit(final int pair, final int bit) {
+		return ((pair & -bit) << 1) | (pair & (bit - 1));
+	}
+}
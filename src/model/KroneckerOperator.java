@@ -0,0 +1,74 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The operator of one column of a circuit, kept as the Kronecker product of its
+ * gates with the identity on every wire no gate touches. Only the factors are
+ * stored, so a column takes memory in the number of gates rather than a 2^n by
+ * 2^n matrix. Applying it contracts each factor with the state along the wires
+ * it acts on and never visits the identity wires.
+ *
+ * @author cdberkstresser
+ *
+ */
+public final class KroneckerOperator {
+	/** The gates of the column. No two share a wire. */
+	private final List<QuantumGate> factors;
+	/** The number of wires the operator acts on. */
+	private final int qubits;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param qubits  The number of wires the operator acts on.
+	 * @param factors The gates of the column. No two may share a wire.
+	 */
+	public KroneckerOperator(final int qubits, final List<QuantumGate> factors) {
+		BitSet used = new BitSet(qubits);
+		for (QuantumGate factor : factors) {
+			for (int wire : factor.getWires()) {
+				if (wire < 0 || wire >= qubits) {
+					throw new IllegalArgumentException("A gate is outside of the circuit.");
+				}
+				if (used.get(wire)) {
+					throw new IllegalArgumentException("Gates in the same column can not share a wire.");
+				}
+				used.set(wire);
+			}
+		}
+		this.qubits = qubits;
+		this.factors = Collections.unmodifiableList(new ArrayList<>(factors));
+	}
+
+	/**
+	 * Applies every factor to the state in place.
+	 *
+	 * @param state The state to update.
+	 */
+	public void apply(final StateVector state) {
+		if (state.getNumberOfQubits() != qubits) {
+			throw new IllegalArgumentException("The state does not have the same number of wires as the operator.");
+		}
+		for (QuantumGate factor : factors) {
+			QuantumSimulator.applyGate(state, factor);
+		}
+	}
+
+	/**
+	 * @return The gates of the column. Wires not listed carry the identity.
+	 */
+	public List<QuantumGate> getFactors() {
+		return factors;
+	}
+
+	/**
+	 * @return The number of wires the operator acts on.
+	 */
+	public int getNumberOfQubits() {
+		return qubits;
+	}
+}
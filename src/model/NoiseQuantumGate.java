@@ -0,0 +1,180 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A noise channel on a single wire, given by the probability that the noise
+ * occurs. Noise turns a pure state into a mixture, so these gates can only be
+ * simulated on a {@link DensityMatrix}.
+ *
+ * @author cdberkstresser
+ *
+ */
+public class NoiseQuantumGate implements QuantumGateWithParameter {
+	/** Serializable ID. */
+	private static final long serialVersionUID = -2861540793316520941L;
+	/**
+	 * List of gates supported by this class. Depolarizing, amplitude damping,
+	 * dephasing and readout error.
+	 */
+	private static final List<String> gateTypes = new ArrayList<>(Arrays.asList("Dep", "Damp", "Deph", "RO"));
+	/** The gate type as a string. Should be filtered through the list above. */
+	private final String gateType;
+	/** The horizontal position of this gate on the circuit. Zero based. */
+	private final int gatePosition;
+	/** The wire the noise acts on. */
+	private final List<Integer> wires;
+	/** The probability of the noise. */
+	private final double value;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param gateType     The type of noise.
+	 * @param value        The probability of the noise, from 0 to 1.
+	 * @param gatePosition The horizontal position of the gate in the circuit. Zero
+	 *                     based.
+	 * @param wires        The wire the noise acts on.
+	 */
+	public NoiseQuantumGate(final String gateType, final double value, final int gatePosition,
+			final List<Integer> wires) {
+		if (!gateTypes.contains(gateType)) {
+			throw new IllegalArgumentException("Unknown noise channel " + gateType + ".");
+		}
+		if (!(value >= 0 && value <= 1)) {
+			throw new IllegalArgumentException("The probability of noise must be between 0 and 1.");
+		}
+		if (wires.size() != 1) {
+			throw new IllegalArgumentException("Noise acts on a single wire.");
+		}
+		this.gateType = gateType;
+		this.value = value;
+		this.gatePosition = gatePosition;
+		this.wires = wires;
+	}
+
+	/**
+	 * Clone to return a copy. Make sure to override gateType, gatePosition, and
+	 * wires.
+	 */
+	@Override
+	public NoiseQuantumGate clone() {
+		return new NoiseQuantumGate(gateType, value, gatePosition, wires);
+	}
+
+	/**
+	 * Noise is not unitary, so it has no gate matrix.
+	 */
+	@Override
+	public Complex[][] getGateMatrix() {
+		throw new UnsupportedOperationException("Noise channels do not have a gate matrix.");
+	}
+
+	/**
+	 * @return The Kraus operators of the channel, each a 2x2 matrix as {m00r, m00i,
+	 *         m01r, m01i, m10r, m10i, m11r, m11i}. A readout error is modelled as
+	 *         a bit flip just before measurement.
+	 */
+	public List<double[]> getKrausOperators() {
+		double stay;
+		switch (gateType) {
+		case "Dep":
+			// (1 - p) rho + p I / 2, spread evenly over X, Y and Z.
+			stay = Math.sqrt(1 - 3 * value / 4);
+			double pauli = Math.sqrt(value / 4);
+			return Arrays.asList(new double[] { stay, 0, 0, 0, 0, 0, stay, 0 },
+					new double[] { 0, 0, pauli, 0, pauli, 0, 0, 0 }, new double[] { 0, 0, 0, -pauli, 0, pauli, 0, 0 },
+					new double[] { pauli, 0, 0, 0, 0, 0, -pauli, 0 });
+		case "Damp":
+			return Arrays.asList(new double[] { 1, 0, 0, 0, 0, 0, Math.sqrt(1 - value), 0 },
+					new double[] { 0, 0, Math.sqrt(value), 0, 0, 0, 0, 0 });
+		case "Deph":
+			stay = Math.sqrt(1 - value);
+			return Arrays.asList(new double[] { stay, 0, 0, 0, 0, 0, stay, 0 },
+					new double[] { Math.sqrt(value), 0, 0, 0, 0, 0, -Math.sqrt(value), 0 });
+		case "RO":
+			stay = Math.sqrt(1 - value);
+			return Arrays.asList(new double[] { stay, 0, 0, 0, 0, 0, stay, 0 },
+					new double[] { 0, 0, Math.sqrt(value), 0, Math.sqrt(value), 0, 0, 0 });
+		default:
+			throw new UnsupportedOperationException("Gate not implemented yet!");
+		}
+	}
+
+	/**
+	 * A pure state can not carry noise.
+	 *
+	 * @param state The state to update.
+	 */
+	@Override
+	public void apply(final StateVector state) {
+		throw new UnsupportedOperationException("Noise channels can only be simulated on a density matrix.");
+	}
+
+	/**
+	 * @return How the gate acts on the amplitudes of a state.
+	 */
+	@Override
+	public GateKind getKind() {
+		return GateKind.CHANNEL;
+	}
+
+	/**
+	 * @return The gate type.
+	 */
+	@Override
+	public String getGateType() {
+		return gateType;
+	}
+
+	/**
+	 * @return The probability of the noise.
+	 */
+	@Override
+	public double getValue() {
+		return value;
+	}
+
+	/**
+	 * @return a string representation of this gate.
+	 */
+	@Override
+	public String toString() {
+		return gateType;
+	}
+
+	/**
+	 * @return the horizontal gate position in the circuit.
+	 */
+	@Override
+	public int getGatePosition() {
+		return gatePosition;
+	}
+
+	/**
+	 * Compares two gates.
+	 */
+	@Override
+	public int compareTo(final QuantumGate arg0) {
+		return this.getWires().stream().min(Comparator.naturalOrder()).orElse(0)
+				- arg0.getWires().stream().min(Comparator.naturalOrder()).orElse(0);
+	}
+
+	/**
+	 * @return the wires associated with this gate.
+	 */
+	@Override
+	public List<Integer> getWires() {
+		return wires;
+	}
+
+	/**
+	 * @return A list of gate types supported by this class.
+	 */
+	public static List<String> getGateTypes() {
+		return gateTypes;
+	}
+}
@@ -0,0 +1,231 @@
+package model;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * A state whose amplitudes live outside the Java heap, either in direct memory
+ * or in a memory-mapped file. Used for registers too large for the servlet
+ * heap or for a Java array. The amplitudes are stored interleaved as real and
+ * imaginary pairs, split into chunks because a single buffer is limited to 2GB.
+ *
+ * @author cdberkstresser
+ *
+ */
+final class OffHeapStateVector extends StateVector {
+	/** The number of pairs of amplitudes a kernel hands to the pool at once. */
+	private static final long BLOCK = 1L << 30;
+	/** Two to the power of this is the number of amplitudes in each chunk. */
+	private static final int CHUNK_BITS = 26;
+	/** Masks the position of an amplitude within its chunk. */
+	private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+	/** Bytes taken up by each amplitude. */
+	private static final int BYTES_PER_AMPLITUDE = 2 * Double.BYTES;
+	/** Serializable ID. */
+	private static final long serialVersionUID = -1206575271051802522L;
+	/** The chunks of interleaved amplitudes. */
+	private transient DoubleBuffer[] chunks;
+	/**
+	 * The directory holding the backing files, or null for direct memory. Taken
+	 * from the current settings again when the state is read back.
+	 */
+	private transient Path directory;
+
+	/**
+	 * Constructor. Defaults to |00...0>.
+	 *
+	 * @param numberOfQubits The number of wires this state spans.
+	 * @param directory      The directory in which to map the backing file, or
+	 *                       null to use direct memory.
+	 */
+	OffHeapStateVector(final int numberOfQubits, final Path directory) {
+		super(numberOfQubits);
+		this.directory = directory;
+		chunks = allocateChunks();
+		setAmplitude(0, 1, 0);
+	}
+
+	@Override
+	public StateVector copy() {
+		OffHeapStateVector returnValue = new OffHeapStateVector(getNumberOfQubits(), directory);
+		for (int n = 0; n < chunks.length; ++n) {
+			// kernels only use absolute positions, so moving the position here is harmless.
+			returnValue.chunks[n].put(chunks[n].duplicate().rewind()).rewind();
+		}
+		return returnValue;
+	}
+
+	@Override
+	public double getImaginary(final long index) {
+		return getChunk(index).get(getOffset(index) + 1);
+	}
+
+	@Override
+	public double getReal(final long index) {
+		return getChunk(index).get(getOffset(index));
+	}
+
+	@Override
+	void applyMatrix(final int target, final long controls, final long controlValues, final double[] matrix) {
+		long stride = getBit(target);
+		long controlMask = getIndexMask(controls);
+		long controlBits = getIndexMask(controlValues);
+		forEachPair((from, to) -> {
+			for (long pair = from; pair < to; ++pair) {
+				long zero = insertZeroBit(pair, stride);
+				if ((zero & controlMask) == controlBits) {
+					long one = zero + stride;
+					DoubleBuffer zeroChunk = getChunk(zero);
+					DoubleBuffer oneChunk = getChunk(one);
+					int zeroOffset = getOffset(zero);
+					int oneOffset = getOffset(one);
+					double zR = zeroChunk.get(zeroOffset);
+					double zI = zeroChunk.get(zeroOffset + 1);
+					double oR = oneChunk.get(oneOffset);
+					double oI = oneChunk.get(oneOffset + 1);
+					zeroChunk.put(zeroOffset, matrix[0] * zR - matrix[1] * zI + matrix[2] * oR - matrix[3] * oI);
+					zeroChunk.put(zeroOffset + 1, matrix[0] * zI + matrix[1] * zR + matrix[2] * oI + matrix[3] * oR);
+					oneChunk.put(oneOffset, matrix[4] * zR - matrix[5] * zI + matrix[6] * oR - matrix[7] * oI);
+					oneChunk.put(oneOffset + 1, matrix[4] * zI + matrix[5] * zR + matrix[6] * oI + matrix[7] * oR);
+				}
+			}
+		});
+	}
+
+	@Override
+	double getWireProbability(final int wire) {
+		long bit = getBit(wire);
+		DoubleAdder returnValue = new DoubleAdder();
+		forEachPair((from, to) -> {
+			double sum = 0;
+			for (long pair = from; pair < to; ++pair) {
+				sum += getProbability(insertZeroBit(pair, bit) + bit);
+			}
+			returnValue.add(sum);
+		});
+		return returnValue.sum();
+	}
+
+	@Override
+	void setAmplitude(final long index, final double real, final double imaginary) {
+		getChunk(index).put(getOffset(index), real).put(getOffset(index) + 1, imaginary);
+	}
+
+	/**
+	 * @return Zeroed chunks large enough for every amplitude of the state.
+	 */
+	private DoubleBuffer[] allocateChunks() {
+		long chunkAmplitudes = Math.min(size(), 1L << CHUNK_BITS);
+		DoubleBuffer[] returnValue = new DoubleBuffer[(int) (size() / chunkAmplitudes)];
+		long chunkBytes = chunkAmplitudes * BYTES_PER_AMPLITUDE;
+		if (directory == null) {
+			for (int n = 0; n < returnValue.length; ++n) {
+				returnValue[n] = ByteBuffer.allocateDirect((int) chunkBytes).order(ByteOrder.nativeOrder())
+						.asDoubleBuffer();
+			}
+			return returnValue;
+		}
+		try {
+			Path file = Files.createTempFile(directory, "state", ".bin");
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				for (int n = 0; n < returnValue.length; ++n) {
+					returnValue[n] = channel.map(FileChannel.MapMode.READ_WRITE, n * chunkBytes, chunkBytes)
+							.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+				}
+			}
+			// the mapping keeps the pages alive, so the name can go right away.
+			try {
+				Files.delete(file);
+			} catch (IOException e) {
+				file.toFile().deleteOnExit();
+			}
+			return returnValue;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to map the state file!", e);
+		}
+	}
+
+	/**
+	 * Runs a kernel over every amplitude pair of the state, a block at a time so
+	 * each block fits in the pool's int ranges.
+	 *
+	 * @param kernel Receives the first and last pair of each range.
+	 */
+	private void forEachPair(final LongRangeKernel kernel) {
+		long pairs = size() / 2;
+		for (long base = 0; base < pairs; base += BLOCK) {
+			final long offset = base;
+			QuantumSimulator.forEachRange((int) Math.min(BLOCK, pairs - base),
+					(from, to) -> kernel.apply(offset + from, offset + to));
+		}
+	}
+
+	/**
+	 * @param index The basis state index.
+	 * @return The chunk holding the amplitude.
+	 */
+	private DoubleBuffer getChunk(final long index) {
+		return chunks[(int) (index >>> CHUNK_BITS)];
+	}
+
+	/**
+	 * @param index The basis state index.
+	 * @return The position of the real part of the amplitude within its chunk.
+	 */
+	private static int getOffset(final long index) {
+		return (int) (index & CHUNK_MASK) << 1;
+	}
+
+	/**
+	 * Reads the amplitudes back into fresh off-heap storage, mapped to a file in
+	 * the configured state directory when there is one.
+	 *
+	 * @param in The stream to read.
+	 * @throws IOException            If the stream fails.
+	 * @throws ClassNotFoundException If the stream holds an unknown class.
+	 */
+	private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		directory = QuantumSimulator.getStateDirectory();
+		chunks = allocateChunks();
+		for (long n = 0; n < size(); ++n) {
+			setAmplitude(n, in.readDouble(), in.readDouble());
+		}
+	}
+
+	/**
+	 * Writes the amplitudes since the buffers themselves can not be serialized.
+	 *
+	 * @param out The stream to write.
+	 * @throws IOException If the stream fails.
+	 */
+	private void writeObject(final ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		for (long n = 0; n < size(); ++n) {
+			out.writeDouble(getReal(n));
+			out.writeDouble(getImaginary(n));
+		}
+	}
+
+	/**
+	 * A kernel over a range of amplitude pairs that may lie beyond the int range.
+	 */
+	@FunctionalInterface
+	private interface LongRangeKernel {
+		/**
+		 * @param from The first pair, inclusive.
+		 * @param to   The last pair, exclusive.
+		 */
+		void apply(long from, long to);
+	}
+}
@@ -0,0 +1,149 @@
+package model;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Application wide cache of the states after the first columns of a circuit,
+ * keyed by a SHA-256 hash of the initial wire values and every gate in those
+ * columns. Sessions that load the same example or edit the end of the same
+ * circuit share the states of the columns they have in common, so a common
+ * prefix is only simulated once per server. The least recently used states are
+ * evicted once the cache holds more bytes than its budget.
+ *
+ * @author cdberkstresser
+ *
+ */
+public final class PrefixStateCache {
+	/** The cached states, least recently used first. Never changed once cached. */
+	private static final LinkedHashMap<String, StateVector> CACHE = new LinkedHashMap<>(64, 0.75f, true);
+
+	/**
+	 * The most bytes of states cached. Defaults to the quantum.prefixCacheBytes
+	 * system property.
+	 */
+	private static long capacity = Math.max(0, Long.getLong("quantum.prefixCacheBytes", 512L << 20));
+
+	/** The number of bytes of states currently cached. */
+	private static long bytes;
+
+	/** The number of stored states dropped to stay within budget. */
+	private static long evictions;
+
+	/** The number of lookups answered from the cache. */
+	private static long hits;
+
+	/** The number of lookups that found nothing. */
+	private static long misses;
+
+	/**
+	 * Utility class.
+	 */
+	private PrefixStateCache() {
+	}
+
+	/**
+	 * Empties the cache and resets the counters.
+	 */
+	public static synchronized void clear() {
+		CACHE.clear();
+		bytes = 0;
+		evictions = 0;
+		hits = 0;
+		misses = 0;
+	}
+
+	/**
+	 * @return The number of bytes of states currently cached.
+	 */
+	public static synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return The most bytes of states cached.
+	 */
+	public static synchronized long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return The number of states dropped to stay within budget.
+	 */
+	public static synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return The number of lookups answered from the cache.
+	 */
+	public static synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of lookups that found nothing.
+	 */
+	public static synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return The number of states cached.
+	 */
+	public static synchronized int getSize() {
+		return CACHE.size();
+	}
+
+	/**
+	 * @param capacity The most bytes of states cached.
+	 */
+	public static synchronized void setCapacity(final long capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("The cache capacity can not be negative.");
+		}
+		PrefixStateCache.capacity = capacity;
+		evict();
+	}
+
+	/**
+	 * @param key The hash of a circuit prefix.
+	 * @return The shared state after the prefix, or null when it is not cached.
+	 *         Callers must not change it.
+	 */
+	static synchronized StateVector get(final String key) {
+		StateVector returnValue = CACHE.get(key);
+		if (returnValue == null) {
+			++misses;
+		} else {
+			++hits;
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @param key   The hash of a circuit prefix.
+	 * @param state The state after the prefix. Shared from now on, so it must not
+	 *              be changed.
+	 */
+	static synchronized void put(final String key, final StateVector state) {
+		long weight = state.getMemoryBytes();
+		if (weight <= capacity && CACHE.putIfAbsent(key, state) == null) {
+			bytes += weight;
+			evict();
+		}
+	}
+
+	/**
+	 * Drops the least recently used states until the cache is within budget.
+	 */
+	private static void evict() {
+		Iterator<Map.Entry<String, StateVector>> entries = CACHE.entrySet().iterator();
+		while (bytes > capacity && entries.hasNext()) {
+			bytes -= entries.next().getValue().getMemoryBytes();
+			entries.remove();
+			++evictions;
+		}
+	}
+}
@@ -2,14 +2,24 @@ package model;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectInputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -34,8 +44,15 @@ import org.xml.sax.SAXException;
  *
  */
 public class QuantumCircuit implements Serializable {
+	/**
+	 * The most wires a circuit can have for its unitary to be computed. The
+	 * unitary of a circuit this wide takes 256 MB.
+	 */
+	public static final int MAX_UNITARY_QUBITS = 12;
 	/** Generated Serializable ID. */
 	private static final long serialVersionUID = 8646269267743668885L;
+	/** Hands out modification versions, so no two circuits ever share one. */
+	private static final AtomicLong VERSIONS = new AtomicLong();
 
 	/**
 	 * Multiply two complex gates.
@@ -45,20 +62,13 @@ public class QuantumCircuit implements Serializable {
 	 * @return The matrix product of the two.
 	 */
 	public static Complex[][] multiply(final Complex[][] matrix1, final Complex[][] matrix2) {
-		Complex[][] result = new Complex[matrix1.length][matrix2[0].length];
-		for (int answerRow = 0; answerRow < matrix1.length; ++answerRow) {
-			for (int answerColumn = 0; answerColumn < matrix2[0].length; ++answerColumn) {
-				Complex sum = new Complex();
-				for (int rowColumnwalker = 0; rowColumnwalker < matrix1[0].length; ++rowColumnwalker) {
-					sum = sum.add(matrix1[answerRow][rowColumnwalker].multiply(matrix2[rowColumnwalker][answerColumn]));
-				}
-				result[answerRow][answerColumn] = sum;
-			}
-		}
-		return result;
+		return ComplexMatrix.of(matrix1).multiply(ComplexMatrix.of(matrix2)).toComplex();
 	}
 
 	/**
+	 * Materializes a tensor product. Simulation never builds column operators
+	 * this way; see {@link KroneckerOperator}.
+	 *
 	 * @param state1 The first state on which to conduct the tensor product.
 	 * @param state2 The second state on which to conduct the tensor product.
 	 * @return The tensor product of the states.
@@ -71,8 +81,12 @@ public class QuantumCircuit implements Serializable {
 					for (int column2 = 0; column2 < state2[0].length; ++column2) {
 						int destinationRow = row2 + state2.length * rowMe;
 						int destinationColumn = column2 + state2.length * columnMe;
-						result[destinationRow][destinationColumn] = state1[rowMe][columnMe]
-								.multiply(state2[row2][column2]);
+						Complex a = state1[rowMe][columnMe];
+						Complex b = state2[row2][column2];
+						result[destinationRow][destinationColumn] = new Complex(
+								ComplexMath.multiplyReal(a.getReal(), a.getImaginary(), b.getReal(), b.getImaginary()),
+								ComplexMath.multiplyImaginary(a.getReal(), a.getImaginary(), b.getReal(),
+										b.getImaginary()));
 					}
 				}
 			}
@@ -80,13 +94,36 @@ public class QuantumCircuit implements Serializable {
 		return result;
 	}
 
+	/** Cache of density matrices, for circuits with noise. */
+	private transient Map<Integer, DensityMatrix> densityCache = new HashMap<>();
+
+	/** Cache of sampled noise estimates, for circuits too wide for a density matrix. */
+	private transient Map<Integer, TrajectoryEstimate> trajectoryCache = new HashMap<>();
+
+	/** Cache of measurement samplers, by index position. */
+	private transient Map<Integer, AliasTable> samplerCache = new HashMap<>();
+
+	/** The last window of columns built for the view. */
+	private transient SimulationSnapshot snapshot;
+
+	/** The modification version of the circuit. */
+	private long version = VERSIONS.incrementAndGet();
+
 	/** The list of quantum gates associated with this circuit. */
 	private final List<QuantumGate> gates = new ArrayList<>();
 
 	/**
-	 * Cache of states for speed.
+	 * Checkpointed states, within a byte budget. Like the other caches, never
+	 * written out with the session, so a restored circuit starts over with the
+	 * default budget and interval.
 	 */
-	private final Map<Integer, List<Complex>> stateTransposeCache = new HashMap<>();
+	private transient StateCheckpoints checkpoints = new StateCheckpoints();
+
+	/**
+	 * Cache of unitaries, keyed by the first and last column of the range. Never
+	 * written out with the session, as it can run to gigabytes.
+	 */
+	private transient UnitaryCache unitaryCache = new UnitaryCache();
 
 	/** The list of quantum wires associated with this circuit. */
 	private final List<QuantumWire> wires = new ArrayList<>();
@@ -96,7 +133,12 @@ public class QuantumCircuit implements Serializable {
 	 */
 	public void addWire() {
 		addWire(new QuantumWire());
-		stateTransposeCache.clear();
+		checkpoints.clear();
+		densityCache.clear();
+		trajectoryCache.clear();
+		samplerCache.clear();
+		version = VERSIONS.incrementAndGet();
+		unitaryCache.clear();
 	}
 
 	/**
@@ -106,7 +148,26 @@ public class QuantumCircuit implements Serializable {
 	 */
 	public void addWire(final QuantumWire wire) {
 		wires.add(wire);
-		stateTransposeCache.clear();
+		checkpoints.clear();
+		densityCache.clear();
+		trajectoryCache.clear();
+		samplerCache.clear();
+		version = VERSIONS.incrementAndGet();
+		unitaryCache.clear();
+	}
+
+	/**
+	 * Empties every cache once the initial value of a wire has changed.
+	 */
+	private void clearIfWiresChanged() {
+		if (wires.stream().anyMatch(QuantumWire::isDirty)) {
+			checkpoints.clear();
+			densityCache.clear();
+			trajectoryCache.clear();
+			samplerCache.clear();
+			version = VERSIONS.incrementAndGet();
+			wires.forEach(QuantumWire::resetDirty);
+		}
 	}
 
 	/**
@@ -166,11 +227,8 @@ public class QuantumCircuit implements Serializable {
 			Element gate = doc.createElement("Gate");
 			gate.setAttribute("position", String.valueOf(g.getGatePosition()));
 			gate.setAttribute("gateType", g.getGateType());
-			if (g instanceof SingleQuantumGateWithParameter) {
-				gate.setAttribute("parameterValue", String.valueOf(((SingleQuantumGateWithParameter) g).getValue()));
-			} else if (g instanceof ControlledQuantumGateWithParameter) {
-				gate.setAttribute("parameterValue",
-						String.valueOf(((ControlledQuantumGateWithParameter) g).getValue()));
+			if (g instanceof QuantumGateWithParameter) {
+				gate.setAttribute("parameterValue", String.valueOf(((QuantumGateWithParameter) g).getValue()));
 			} else {
 				gate.setAttribute("parameterValue", "0.0");
 			}
@@ -194,6 +252,36 @@ public class QuantumCircuit implements Serializable {
 		transformer.transform(source, result);
 	}
 
+	/**
+	 * @param afterIndex The index position of the state to get. Calculates the
+	 *                   state after all gates at that index position have ran.
+	 * @return The density matrix of the circuit at any index position, which
+	 *         includes the effect of noise. The instance is shared with the
+	 *         cache, and with every index position past the last gate.
+	 */
+	public DensityMatrix getDensityMatrix(final int afterIndex) {
+		if (afterIndex > getMaxWireGatePosition() + 1) {
+			return getDensityMatrix(getMaxWireGatePosition() + 1);
+		}
+		clearIfWiresChanged();
+		if (densityCache.containsKey(afterIndex)) {
+			return densityCache.get(afterIndex);
+		}
+		int from = afterIndex;
+		while (from > 0 && !densityCache.containsKey(from)) {
+			--from;
+		}
+		DensityMatrix density = densityCache.containsKey(from) ? densityCache.get(from).copy()
+				: DensityMatrix.of(StateVector.fromWires(wires));
+		List<QuantumGate> factors = new ArrayList<>();
+		for (int column = from; column < afterIndex; ++column) {
+			factors.addAll(getColumnOperator(column).getFactors());
+		}
+		density.applyGates(factors);
+		densityCache.put(afterIndex, density);
+		return density;
+	}
+
 	/**
 	 * @param wire     The wire index to get.
 	 * @param position The position index to get.
@@ -204,6 +292,34 @@ public class QuantumCircuit implements Serializable {
 				.orElse(null);
 	}
 
+	/**
+	 * @param position The horizontal position of the column.
+	 * @return The operator of the column as the gates on it, with the identity on
+	 *         every other wire.
+	 */
+	public KroneckerOperator getColumnOperator(final int position) {
+		return new KroneckerOperator(wires.size(),
+				gates.stream().filter(x -> x.getGatePosition() == position).collect(Collectors.toList()));
+	}
+
+	/**
+	 * @return The store of states after each column, with its budget and counters.
+	 */
+	public StateCheckpoints getCheckpoints() {
+		return checkpoints;
+	}
+
+	/**
+	 * @return The modification version of the circuit. Goes up every time a gate,
+	 *         wire or initial value changes, and is never shared with another
+	 *         circuit, so anything derived from the circuit can be reused until
+	 *         the version moves on.
+	 */
+	public long getVersion() {
+		clearIfWiresChanged();
+		return version;
+	}
+
 	/**
 	 * @return A list of all gates from the circuit.
 	 */
@@ -225,6 +341,24 @@ public class QuantumCircuit implements Serializable {
 		return gates.stream().map(QuantumGate::getGatePosition).max(Comparator.naturalOrder()).orElse(-1);
 	}
 
+	/**
+	 * @param afterIndex The index position of the state to get. Calculates the
+	 *                   state after all gates at that index position have ran.
+	 * @param wires      The wires to measure, the first being the most
+	 *                   significant bit of the outcome.
+	 * @return The joint probability of every outcome of measuring just those
+	 *         wires.
+	 */
+	public double[] getMarginal(final int afterIndex, final int... wires) {
+		if (!isNoisy(afterIndex)) {
+			return getStateVector(afterIndex).getMarginal(wires);
+		}
+		if (this.wires.size() >= TrajectorySimulator.getTrajectoryQubits()) {
+			throw new UnsupportedOperationException("Joint marginals of wide noisy circuits are not estimated.");
+		}
+		return getDensityMatrix(afterIndex).getMarginal(wires);
+	}
+
 	/**
 	 * @param afterIndex The index position of the state to get. Calculates the
 	 *                   state after all gates at that index position have ran.
@@ -232,19 +366,46 @@ public class QuantumCircuit implements Serializable {
 	 *         measuring one.
 	 */
 	public List<Complex> getQubitProbabilities(final int afterIndex) {
-		List<Complex> returnValue = new ArrayList<>();
-		Complex[][] state = getState(afterIndex);
-
-		for (int wire = wires.size() - 1; wire >= 0; --wire) {
-			double runningProbability = 0.0;
-			for (int row = 0; row < state.length; ++row) {
-				if ((row & (int) Math.pow(2, wire)) != 0) {
-					runningProbability += Math.pow(state[row][0].modulus(), 2);
-				}
+		return Arrays.stream(getWireProbabilities(afterIndex)).mapToObj(Complex::new).collect(Collectors.toList());
+	}
+
+	/**
+	 * @param firstColumn The first index position of the window.
+	 * @param columns     The number of index positions in the window.
+	 * @return The amplitudes and wire probabilities after every index position of
+	 *         the window. Built once until the circuit changes. Amplitudes stop
+	 *         at the first noise, and are left out altogether for circuits wider
+	 *         than {@link SimulationSnapshot#MAX_AMPLITUDE_QUBITS}.
+	 */
+	public SimulationSnapshot getSnapshot(final int firstColumn, final int columns) {
+		clearIfWiresChanged();
+		if (snapshot != null && snapshot.getVersion() == version && snapshot.getFirstColumn() == firstColumn
+				&& snapshot.getColumns() == columns) {
+			return snapshot;
+		}
+		int last = getMaxWireGatePosition() + 1;
+		double[][] real = new double[columns][];
+		double[][] imaginary = new double[columns][];
+		double[][] probabilities = new double[columns][];
+		for (int n = 0; n < columns; ++n) {
+			int column = firstColumn + n;
+			if (column > last && n > 0) {
+				// past the last gate every column is the final state.
+				real[n] = real[n - 1];
+				imaginary[n] = imaginary[n - 1];
+				probabilities[n] = probabilities[n - 1];
+			} else if (isNoisy(column) || wires.size() > SimulationSnapshot.MAX_AMPLITUDE_QUBITS) {
+				probabilities[n] = getWireProbabilities(column);
+			} else {
+				StateVector state = getStateVector(column);
+				real[n] = new double[Math.toIntExact(state.size())];
+				imaginary[n] = new double[real[n].length];
+				state.getAmplitudes(0, real[n], imaginary[n]);
+				probabilities[n] = state.getWireProbabilities();
 			}
-			returnValue.add(new Complex(runningProbability));
 		}
-		return returnValue;
+		snapshot = new SimulationSnapshot(version, wires.size(), firstColumn, real, imaginary, probabilities);
+		return snapshot;
 	}
 
 	/**
@@ -253,36 +414,236 @@ public class QuantumCircuit implements Serializable {
 	 * @return The state of the circuit at any index position.
 	 */
 	public Complex[][] getState(final int afterIndex) {
-		Complex[][] gateMatrix = { { new Complex(1) } };
-		if (wires.stream().anyMatch(QuantumWire::isDirty)) {
-			stateTransposeCache.clear();
-			wires.forEach(QuantumWire::resetDirty);
+		return getStateVector(afterIndex).toColumn();
+	}
+
+	/**
+	 * @param afterIndex The index position of the state to get. Calculates the
+	 *                   state after all gates at that index position have ran.
+	 * @return The state of the circuit at any index position. The instance is
+	 *         shared with the checkpoints. Columns in between are fused together
+	 *         and replayed from the closest stored column, keeping a checkpoint
+	 *         at every interval passed. Every index position past the last gate
+	 *         shares the final state.
+	 */
+	public StateVector getStateVector(final int afterIndex) {
+		if (afterIndex > getMaxWireGatePosition() + 1) {
+			return getStateVector(getMaxWireGatePosition() + 1);
+		}
+		clearIfWiresChanged();
+		StateVector cached = checkpoints.get(afterIndex);
+		if (cached != null) {
+			return cached;
+		}
+		if (isNoisy(afterIndex)) {
+			throw new UnsupportedOperationException("The state after noise needs a density matrix.");
 		}
-		if (stateTransposeCache.containsKey(afterIndex)) {
-			return stateFromCache(stateTransposeCache.get(afterIndex));
+		String[] keys = getPrefixKeys(afterIndex);
+		StateVector shared = PrefixStateCache.get(keys[afterIndex]);
+		if (shared != null) {
+			checkpoints.put(afterIndex, shared);
+			return shared;
+		}
+		// replay from the closest stored column, here or shared by another session.
+		int from = checkpoints.getClosestColumn(afterIndex);
+		StateVector start = from < 0 ? null : checkpoints.peek(from);
+		for (int column = afterIndex - 1; column > from; --column) {
+			if (column % checkpoints.getInterval() == 0 && (shared = PrefixStateCache.get(keys[column])) != null) {
+				from = column;
+				start = shared;
+				checkpoints.put(column, shared);
+				break;
+			}
+		}
+		StateVector state;
+		if (start == null) {
+			from = 0;
+			state = StateVector.fromWires(wires);
+			keepState(0, keys[0], state);
+			if (afterIndex == 0) {
+				return state;
+			}
+			state = state.copy();
 		} else {
-			if (afterIndex == 0) { // afterIndex0 refers to the gates themselves
-				for (QuantumWire wire : wires) {
-					gateMatrix = tensor(gateMatrix, wire.getInitialValue().getState());
-				}
-			} else { // afterIndex1 refers to gates on gate position zero, etc.
-				for (int n = 0; n < wires.size();) {
-					final int wirePosition = n;
-					List<QuantumGate> thisStateGate = gates.stream().filter(x -> x.getGatePosition() == afterIndex - 1)
-							.filter(x -> x.getWires().contains(wirePosition)).collect(Collectors.toList());
-					if (thisStateGate.size() > 0) {
-						gateMatrix = tensor(gateMatrix, thisStateGate.get(0).getGateMatrix());
-						n += Math.round(Math.log(thisStateGate.get(0).getGateMatrix().length) / Math.log(2));
-					} else {
-						gateMatrix = tensor(gateMatrix, QuantumGate.getIdentityMatrix());
-						n++;
-					}
+			state = start.copy();
+		}
+		// keep every checkpoint passed on the way.
+		while (from < afterIndex) {
+			int to = Math.min(afterIndex, checkpoints.getNextCheckpoint(from));
+			List<QuantumGate> factors = new ArrayList<>();
+			for (int column = from; column < to; ++column) {
+				factors.addAll(getColumnOperator(column).getFactors());
+			}
+			state = QuantumSimulator.applyGates(state, factors);
+			checkpoints.recordReplay(to - from);
+			from = to;
+			if (from < afterIndex) {
+				keepState(from, keys[from], state);
+				state = state.copy();
+			}
+		}
+		keepState(afterIndex, keys[afterIndex], state);
+		return state;
+	}
+
+	/**
+	 * @param afterIndex The last index position to hash.
+	 * @return For every index position up to the one given, the SHA-256 hash of
+	 *         the initial wire values and every gate before that position, in
+	 *         Base64. Gates in a column are hashed in wire order, so circuits
+	 *         built in a different order share their hashes.
+	 */
+	private String[] getPrefixKeys(final int afterIndex) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Every Java platform supports SHA-256.", e);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES * 4);
+		buffer.putInt(wires.size());
+		digest.update(buffer.array(), 0, buffer.position());
+		for (QuantumWire wire : wires) {
+			Qubit start = wire.getInitialValue();
+			buffer.clear();
+			buffer.putDouble(start.getX().getReal()).putDouble(start.getX().getImaginary())
+					.putDouble(start.getY().getReal()).putDouble(start.getY().getImaginary());
+			digest.update(buffer.array(), 0, buffer.position());
+		}
+		String[] returnValue = new String[afterIndex + 1];
+		List<QuantumGate> sorted = new ArrayList<>(gates);
+		sorted.sort(Comparator.comparingInt(QuantumGate::getGatePosition)
+				.thenComparing(x -> Collections.min(x.getWires())));
+		int next = 0;
+		for (int column = 0; column <= afterIndex; ++column) {
+			try {
+				returnValue[column] = Base64.getEncoder().encodeToString(((MessageDigest) digest.clone()).digest());
+			} catch (CloneNotSupportedException e) {
+				throw new IllegalStateException("The SHA-256 digest can not be copied.", e);
+			}
+			// mark the start of every column, so moving a gate changes the hash.
+			buffer.clear();
+			buffer.putInt(-1);
+			digest.update(buffer.array(), 0, buffer.position());
+			for (; next < sorted.size() && sorted.get(next).getGatePosition() <= column; ++next) {
+				QuantumGate gate = sorted.get(next);
+				digest.update(gate.getGateType().getBytes(StandardCharsets.UTF_8));
+				buffer.clear();
+				buffer.putDouble(gate instanceof QuantumGateWithParameter ? ((QuantumGateWithParameter) gate).getValue()
+						: 0);
+				buffer.putInt(gate.getWires().size());
+				digest.update(buffer.array(), 0, buffer.position());
+				for (int wire : gate.getWires()) {
+					buffer.clear();
+					buffer.putInt(wire);
+					digest.update(buffer.array(), 0, buffer.position());
 				}
-				gateMatrix = multiply(gateMatrix, getState(afterIndex - 1));
 			}
-			stateTransposeCache.put(afterIndex, stateToCache(gateMatrix));
-			return gateMatrix;
 		}
+		return returnValue;
+	}
+
+	/**
+	 * Keeps the state after a column both in the checkpoints of this circuit and
+	 * in the cache shared by every session.
+	 *
+	 * @param column The index position of the state.
+	 * @param key    The hash of the gates before the index position.
+	 * @param state  The state. Shared from now on, so it must not be changed.
+	 */
+	private void keepState(final int column, final String key, final StateVector state) {
+		checkpoints.put(column, state);
+		PrefixStateCache.put(key, state);
+	}
+
+	/**
+	 * @param afterIndex The index position of the state to get. Calculates the
+	 *                   state after all gates at that index position have ran.
+	 * @return The wire probabilities at any index position estimated by sampling
+	 *         noise trajectories. They start from the pure state just before the
+	 *         first noise, which is shared with the cache of states.
+	 */
+	public TrajectoryEstimate getTrajectoryEstimate(final int afterIndex) {
+		if (afterIndex > getMaxWireGatePosition() + 1) {
+			return getTrajectoryEstimate(getMaxWireGatePosition() + 1);
+		}
+		clearIfWiresChanged();
+		if (trajectoryCache.containsKey(afterIndex)) {
+			return trajectoryCache.get(afterIndex);
+		}
+		int from = 0;
+		while (from < afterIndex && !hasNoise(from, from + 1)) {
+			++from;
+		}
+		StateVector start = getStateVector(from);
+		List<QuantumGate> factors = new ArrayList<>();
+		for (int column = from; column < afterIndex; ++column) {
+			factors.addAll(getColumnOperator(column).getFactors());
+		}
+		TrajectoryEstimate estimate = TrajectorySimulator.simulate(start, factors, new SplittableRandom());
+		trajectoryCache.put(afterIndex, estimate);
+		return estimate;
+	}
+
+	/**
+	 * @param afterIndex The index position of the state to get. Calculates the
+	 *                   state after all gates at that index position have ran.
+	 * @return The probability of each wire measuring one.
+	 */
+	public double[] getWireProbabilities(final int afterIndex) {
+		if (!isNoisy(afterIndex)) {
+			return getStateVector(afterIndex).getWireProbabilities();
+		}
+		if (wires.size() < TrajectorySimulator.getTrajectoryQubits()) {
+			return getDensityMatrix(afterIndex).getWireProbabilities();
+		}
+		TrajectoryEstimate estimate = getTrajectoryEstimate(afterIndex);
+		double[] returnValue = new double[wires.size()];
+		for (int wire = 0; wire < returnValue.length; ++wire) {
+			returnValue[wire] = estimate.getWireProbability(wire);
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @param fromColumn The first column of gates to include.
+	 * @param toColumn   The column before which to stop. Matches the index of
+	 *                   {@link #getStateVector(int)}, so the unitary from column 0
+	 *                   takes the initial state to that state.
+	 * @return The unitary of the gates in the range of columns, built by running
+	 *         every column of the identity through the gates. The instance is
+	 *         shared with the cache. Ranges that extend a cached range start from
+	 *         it.
+	 */
+	public ComplexMatrix getUnitary(final int fromColumn, final int toColumn) {
+		if (fromColumn < 0 || toColumn < fromColumn) {
+			throw new IllegalArgumentException("The range of columns is not valid.");
+		}
+		if (hasNoise(fromColumn, toColumn)) {
+			throw new UnsupportedOperationException("A range of columns with noise does not have a unitary.");
+		}
+		if (wires.size() > MAX_UNITARY_QUBITS) {
+			throw new IllegalArgumentException(
+					"Unitaries can only be computed for up to " + MAX_UNITARY_QUBITS + " qubits.");
+		}
+		List<Integer> key = Arrays.asList(fromColumn, toColumn);
+		ComplexMatrix cached = unitaryCache.get(key);
+		if (cached != null) {
+			return cached;
+		}
+		int start = Math.max(fromColumn, toColumn - 1);
+		while (start > fromColumn && unitaryCache.get(Arrays.asList(fromColumn, start)) == null) {
+			--start;
+		}
+		ComplexMatrix unitary = start > fromColumn ? unitaryCache.get(Arrays.asList(fromColumn, start)).copy()
+				: ComplexMatrix.identity(1 << wires.size());
+		List<QuantumGate> factors = new ArrayList<>();
+		for (int column = start; column < toColumn; ++column) {
+			factors.addAll(getColumnOperator(column).getFactors());
+		}
+		QuantumSimulator.applyGates(unitary, factors);
+		unitaryCache.put(key, unitary);
+		return unitary;
 	}
 
 	/**
@@ -292,6 +653,15 @@ public class QuantumCircuit implements Serializable {
 		return wires;
 	}
 
+	/**
+	 * @param afterIndex The index position of the state.
+	 * @return True if noise acts before the index position, so the state there
+	 *         can only be described by a density matrix.
+	 */
+	public boolean isNoisy(final int afterIndex) {
+		return hasNoise(0, afterIndex);
+	}
+
 	/**
 	 * Loads the circuit from an xml file in an input stream.
 	 * 
@@ -340,11 +710,39 @@ public class QuantumCircuit implements Serializable {
 				setGate(new SingleQuantumGateWithParameter(gateType, parameterValue, position, wires));
 			} else if (ControlledQuantumGateWithParameter.getGateTypes().contains(gateType)) {
 				setGate(new ControlledQuantumGateWithParameter(gateType, parameterValue, position, wires));
+			} else if (NoiseQuantumGate.getGateTypes().contains(gateType)) {
+				setGate(new NoiseQuantumGate(gateType, parameterValue, position, wires));
 			}
 		}
 
 	}
 
+	/**
+	 * @param fromColumn The first column to check.
+	 * @param toColumn   The column before which to stop.
+	 * @return True if any noise lies in the range of columns.
+	 */
+	private boolean hasNoise(final int fromColumn, final int toColumn) {
+		return gates.stream().anyMatch(x -> x.getKind() == GateKind.CHANNEL && x.getGatePosition() >= fromColumn
+				&& x.getGatePosition() < toColumn);
+	}
+
+	/**
+	 * Restores a circuit from a session, starting with empty caches.
+	 *
+	 * @param in The stream to read from.
+	 * @throws IOException            If the stream can not be read.
+	 * @throws ClassNotFoundException If the stream holds an unknown class.
+	 */
+	private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		densityCache = new HashMap<>();
+		trajectoryCache = new HashMap<>();
+		samplerCache = new HashMap<>();
+		checkpoints = new StateCheckpoints();
+		unitaryCache = new UnitaryCache();
+	}
+
 	/**
 	 * Removes the last wire from the circuit.
 	 */
@@ -353,7 +751,37 @@ public class QuantumCircuit implements Serializable {
 			wires.remove(wires.size() - 1);
 		}
 		gates.removeIf(x -> x.getWires().contains(wires.size()));
-		stateTransposeCache.clear();
+		checkpoints.clear();
+		densityCache.clear();
+		trajectoryCache.clear();
+		samplerCache.clear();
+		version = VERSIONS.incrementAndGet();
+		unitaryCache.clear();
+	}
+
+	/**
+	 * Measures every wire of the final state of the circuit a number of times.
+	 * The table the shots are drawn from is built once per state and cached.
+	 *
+	 * @param shots The number of shots.
+	 * @return How many times each basis state was measured.
+	 */
+	public ShotCounts sample(final int shots) {
+		int afterIndex = getMaxWireGatePosition() + 1;
+		clearIfWiresChanged();
+		AliasTable sampler = samplerCache.get(afterIndex);
+		if (sampler == null) {
+			if (!isNoisy(afterIndex)) {
+				sampler = AliasTable.of(getStateVector(afterIndex));
+			} else if (wires.size() < TrajectorySimulator.getTrajectoryQubits()) {
+				sampler = AliasTable.of(getDensityMatrix(afterIndex));
+			} else {
+				throw new UnsupportedOperationException("Sampling noise needs a density matrix, which is "
+						+ "only built for fewer than " + TrajectorySimulator.getTrajectoryQubits() + " qubits.");
+			}
+			samplerCache.put(afterIndex, sampler);
+		}
+		return sampler.sample(shots, new SplittableRandom());
 	}
 
 	/**
@@ -363,14 +791,15 @@ public class QuantumCircuit implements Serializable {
 	 * @param gate The new gate to set.
 	 */
 	public void setGate(final QuantumGate gate) {
-		int maxStateCached = stateTransposeCache.keySet().stream().max(Comparator.naturalOrder()).orElse(0);
-		for (int state = gate.getGatePosition(); state <= maxStateCached; ++state) {
-			stateTransposeCache.remove(state);
-		}
+		checkpoints.removeFrom(gate.getGatePosition());
+		densityCache.keySet().removeIf(x -> x >= gate.getGatePosition());
+		trajectoryCache.keySet().removeIf(x -> x >= gate.getGatePosition());
+		samplerCache.keySet().removeIf(x -> x >= gate.getGatePosition());
+		version = VERSIONS.incrementAndGet();
+		unitaryCache.removeIf(x -> x.get(1) > gate.getGatePosition());
 
 		gates.removeIf(x -> gatesCollide(x, gate));
 
-		gate.getGateMatrix();
 		if (!gate.getGateType().equals("I") && gate.getGatePosition() < getMaxWireGatePosition() + 2) {
 			this.gates.add(gate);
 		}
@@ -390,32 +819,4 @@ public class QuantumCircuit implements Serializable {
 			removeLastWire();
 		}
 	}
-
-	/**
-	 * Get a 2d array of the state from cache.
-	 * 
-	 * @param state The state to format from caching.
-	 * @return Formatted state array.
-	 */
-	private Complex[][] stateFromCache(final List<Complex> state) {
-		Complex[][] returnValue = new Complex[state.size()][1];
-		for (int n = 0; n < state.size(); ++n) {
-			returnValue[n][0] = state.get(n);
-		}
-		return returnValue;
-	}
-
-	/**
-	 * Get an arraylist of the state to put to cache.
-	 * 
-	 * @param state The state to format for caching.
-	 * @return Formatted state list.
-	 */
-	private List<Complex> stateToCache(final Complex[][] state) {
-		List<Complex> returnValue = new ArrayList<>(state.length);
-		for (Complex[] complexes : state) {
-			returnValue.add(complexes[0]);
-		}
-		return returnValue;
-	}
 }
@@ -1,7 +1,9 @@
 package model;
 
 import java.io.Serializable;
+import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * This interface provides all the basic quantum gate functionality.
@@ -24,9 +26,59 @@ public interface QuantumGate extends Comparable<QuantumGate>, Serializable {
 	/** @return The gate type. */
 	String getGateType();
 
-	/** @return The mathematical matrix associated with this gate. */
+	/**
+	 * @return The mathematical matrix associated with this gate. Simulation does
+	 *         not need it, so it is only meant for display and export.
+	 */
 	Complex[][] getGateMatrix();
 
+	/** @return How the gate acts on the amplitudes of a state. */
+	GateKind getKind();
+
+	/**
+	 * Applies the gate to a state in place, without building its matrix.
+	 *
+	 * @param state The state to update.
+	 */
+	void apply(StateVector state);
+
+	/**
+	 * @return Mask of the control wires, bit n for wire n.
+	 */
+	default long getControls() {
+		return 0;
+	}
+
+	/**
+	 * @return Mask of the values the control wires need to hold for the gate to
+	 *         fire, bit n for wire n.
+	 */
+	default long getControlValues() {
+		return 0;
+	}
+
+	/**
+	 * @return The wires the gate acts on when its controls fire.
+	 */
+	default List<Integer> getTargets() {
+		return getWires().stream().filter(x -> (getControls() & (1L << x)) == 0).collect(Collectors.toList());
+	}
+
+	/**
+	 * @return The 2x2 matrix applied to the target wire when the controls fire.
+	 */
+	default Complex[][] getTargetMatrix() {
+		return getGateMatrix();
+	}
+
+	/**
+	 * @return The 2x2 target matrix as {m00r, m00i, m01r, m01i, m10r, m10i, m11r,
+	 *         m11i}, shared with the gate matrix cache. Callers must not change it.
+	 */
+	default double[] getPrimitiveTargetMatrix() {
+		return GateMatrixCache.getTargetMatrix(this);
+	}
+
 	/** @return The identity matrix. */
 	static Complex[][] getIdentityMatrix() {
 		return new Complex[][] { { new Complex(1), new Complex(0) }, { new Complex(0), new Complex(1) } };
@@ -35,4 +87,44 @@ public interface QuantumGate extends Comparable<QuantumGate>, Serializable {
 	static int getNumberOfControls(String gateType) {
 		return gateType.replaceAll("[^C]+", "").length();
 	}
+
+	/**
+	 * Expands a controlled gate to the matrix over every wire from its first to its
+	 * last wire, the first being the most significant. The size grows with the
+	 * distance between the wires, so this is only meant for display and export.
+	 *
+	 * @param wires         The wires of the gate. The last is the target wire.
+	 *                      The others are controls.
+	 * @param controlValue  The value every control needs to hold for the gate to
+	 *                      fire.
+	 * @param targetMatrix  The 2x2 matrix applied to the target wire.
+	 * @return The matrix over the span of the wires.
+	 */
+	static Complex[][] getControlledMatrix(final List<Integer> wires, final int controlValue,
+			final Complex[][] targetMatrix) {
+		int first = wires.stream().min(Comparator.naturalOrder()).orElse(0);
+		int last = wires.stream().max(Comparator.naturalOrder()).orElse(0);
+		int size = 1 << (last - first + 1);
+		int targetBit = 1 << (last - wires.get(wires.size() - 1));
+		Complex[][] returnGate = new Complex[size][size];
+		for (int col = 0; col < size; ++col) {
+			boolean fires = true;
+			for (int n = 0; n < wires.size() - 1; ++n) {
+				fires &= ((col >> (last - wires.get(n))) & 1) == controlValue;
+			}
+			if (fires) {
+				int bit = (col & targetBit) == 0 ? 0 : 1;
+				returnGate[col & ~targetBit][col] = targetMatrix[0][bit];
+				returnGate[col | targetBit][col] = targetMatrix[1][bit];
+			} else {
+				returnGate[col][col] = new Complex(1);
+			}
+			for (int row = 0; row < size; ++row) {
+				if (returnGate[row][col] == null) {
+					returnGate[row][col] = new Complex(0);
+				}
+			}
+		}
+		return returnGate;
+	}
 }
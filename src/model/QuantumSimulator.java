@@ -0,0 +1,421 @@
+package model;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Simulation engine that applies quantum gates directly to an amplitude vector
+ * instead of building the full 2^n x 2^n operator for every column.
+ *
+ * @author cdberkstresser
+ *
+ */
+public final class QuantumSimulator {
+	/**
+	 * A kernel over a range of independent work items, such as the amplitude pairs
+	 * touched by a gate.
+	 */
+	@FunctionalInterface
+	interface RangeKernel {
+		/**
+		 * @param from The first work item, inclusive.
+		 * @param to   The last work item, exclusive.
+		 */
+		void apply(int from, int to);
+	}
+
+	/**
+	 * Splits a range of work items in half until it is below the threshold, then
+	 * runs the kernel on it.
+	 */
+	private static final class RangeTask extends RecursiveAction {
+		/** Serializable ID. */
+		private static final long serialVersionUID = 2471873447587004735L;
+		/** The last work item, exclusive. */
+		private final int to;
+		/** The first work item, inclusive. */
+		private final int from;
+		/** The kernel to run. */
+		private final RangeKernel kernel;
+		/** The largest range to run without splitting. */
+		private final int threshold;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param kernel    The kernel to run.
+		 * @param from      The first work item, inclusive.
+		 * @param to        The last work item, exclusive.
+		 * @param threshold The largest range to run without splitting.
+		 */
+		RangeTask(final RangeKernel kernel, final int from, final int to, final int threshold) {
+			this.kernel = kernel;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= threshold) {
+				kernel.apply(from, to);
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new RangeTask(kernel, from, middle, threshold),
+						new RangeTask(kernel, middle, to, threshold));
+			}
+		}
+	}
+
+	/** The innermost loops used by the state kernels. */
+	private static final AmplitudeKernel KERNEL = loadKernel();
+
+	/**
+	 * The number of work items below which kernels stay on the calling thread.
+	 * Defaults to the quantum.parallelThreshold system property, and never below
+	 * one.
+	 */
+	private static volatile int parallelThreshold = Math.max(1,
+			Integer.getInteger("quantum.parallelThreshold", 1 << 15));
+
+	/** The pool on which large kernels are split up. */
+	private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * The most wires a block of fused gates may span. One only fuses runs of
+	 * single qubit gates. Defaults to the quantum.fusionQubits system property,
+	 * clamped to the range {@link #setFusionQubits(int)} accepts.
+	 */
+	private static volatile int fusionQubits = Math.max(1,
+			Math.min(GateFusion.MAX_BLOCK_QUBITS, Integer.getInteger("quantum.fusionQubits", 1)));
+
+	/**
+	 * Registers with at least this many qubits are stored off the heap. Defaults
+	 * to the quantum.offHeapQubits system property.
+	 */
+	private static volatile int offHeapQubits = Integer.getInteger("quantum.offHeapQubits", 27);
+
+	/**
+	 * Registers with at least this many qubits start out sparse. Defaults to the
+	 * quantum.sparseQubits system property.
+	 */
+	private static volatile int sparseQubits = Integer.getInteger("quantum.sparseQubits", 12);
+
+	/**
+	 * Sparse states holding more than this fraction of their basis states move to
+	 * dense storage.
+	 */
+	private static volatile double sparseFillRatio = 1.0 / 16;
+
+	/**
+	 * The directory in which off-heap states are memory mapped, or null to keep
+	 * them in direct memory. Defaults to the quantum.stateDirectory system
+	 * property.
+	 */
+	private static volatile Path stateDirectory = System.getProperty("quantum.stateDirectory") == null ? null
+			: Paths.get(System.getProperty("quantum.stateDirectory"));
+
+	/**
+	 * Utility class.
+	 */
+	private QuantumSimulator() {
+	}
+
+	/**
+	 * @return The number of work items below which kernels stay on the calling
+	 *         thread.
+	 */
+	public static int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	/**
+	 * @return The most wires a block of fused gates may span.
+	 */
+	public static int getFusionQubits() {
+		return fusionQubits;
+	}
+
+	/**
+	 * @return The name of the amplitude kernel in use, either the vectorized or
+	 *         the scalar implementation.
+	 */
+	public static String getKernelName() {
+		return KERNEL.getClass().getSimpleName();
+	}
+
+	/**
+	 * @return Registers with at least this many qubits are stored off the heap.
+	 */
+	public static int getOffHeapQubits() {
+		return offHeapQubits;
+	}
+
+	/**
+	 * @return The pool on which large kernels are split up.
+	 */
+	public static ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * @return Sparse states holding more than this fraction of their basis states
+	 *         move to dense storage.
+	 */
+	public static double getSparseFillRatio() {
+		return sparseFillRatio;
+	}
+
+	/**
+	 * @return Registers with at least this many qubits start out sparse.
+	 */
+	public static int getSparseQubits() {
+		return sparseQubits;
+	}
+
+	/**
+	 * @return The directory in which off-heap states are memory mapped, or null
+	 *         when they are kept in direct memory.
+	 */
+	public static Path getStateDirectory() {
+		return stateDirectory;
+	}
+
+	/**
+	 * @param fusionQubits The most wires a block of fused gates may span, from one
+	 *                     to four. One only fuses runs of single qubit gates.
+	 */
+	public static void setFusionQubits(final int fusionQubits) {
+		if (fusionQubits < 1 || fusionQubits > GateFusion.MAX_BLOCK_QUBITS) {
+			throw new IllegalArgumentException(
+					"Fused blocks must span between 1 and " + GateFusion.MAX_BLOCK_QUBITS + " wires.");
+		}
+		QuantumSimulator.fusionQubits = fusionQubits;
+	}
+
+	/**
+	 * @param offHeapQubits Registers with at least this many qubits are stored
+	 *                      off the heap.
+	 */
+	public static void setOffHeapQubits(final int offHeapQubits) {
+		QuantumSimulator.offHeapQubits = offHeapQubits;
+	}
+
+	/**
+	 * @param parallelThreshold The number of work items below which kernels stay on
+	 *                          the calling thread.
+	 */
+	public static void setParallelThreshold(final int parallelThreshold) {
+		if (parallelThreshold < 1) {
+			throw new IllegalArgumentException("The parallel threshold must be positive.");
+		}
+		QuantumSimulator.parallelThreshold = parallelThreshold;
+	}
+
+	/**
+	 * @param pool The pool on which large kernels are split up.
+	 */
+	public static void setPool(final ForkJoinPool pool) {
+		QuantumSimulator.pool = pool;
+	}
+
+	/**
+	 * @param sparseFillRatio Sparse states holding more than this fraction of their
+	 *                        basis states move to dense storage.
+	 */
+	public static void setSparseFillRatio(final double sparseFillRatio) {
+		QuantumSimulator.sparseFillRatio = sparseFillRatio;
+	}
+
+	/**
+	 * @param sparseQubits Registers with at least this many qubits start out
+	 *                     sparse.
+	 */
+	public static void setSparseQubits(final int sparseQubits) {
+		QuantumSimulator.sparseQubits = sparseQubits;
+	}
+
+	/**
+	 * @param stateDirectory The directory in which off-heap states are memory
+	 *                       mapped, ideally on local NVMe, or null to keep them in
+	 *                       direct memory.
+	 */
+	public static void setStateDirectory(final Path stateDirectory) {
+		QuantumSimulator.stateDirectory = stateDirectory;
+	}
+
+	/**
+	 * @return The innermost loops used by the state kernels.
+	 */
+	static AmplitudeKernel getKernel() {
+		return KERNEL;
+	}
+
+	/**
+	 * Picks the vectorized kernels when the jdk.incubator.vector module has been
+	 * added to the runtime, unless the quantum.scalar system property is set.
+	 *
+	 * @return The kernels to use for the lifetime of the application.
+	 */
+	private static AmplitudeKernel loadKernel() {
+		if (!Boolean.getBoolean("quantum.scalar")
+				&& ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			try {
+				return (AmplitudeKernel) Class.forName("model.VectorKernel").getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError e) {
+				// built without the simd profile, fall through to the scalar kernels.
+			}
+		}
+		return new ScalarKernel();
+	}
+
+	/**
+	 * Runs a kernel over a range of independent work items, splitting it across
+	 * the pool when it is large enough to be worth it.
+	 *
+	 * @param count  The number of work items.
+	 * @param kernel The kernel to run.
+	 */
+	static void forEachRange(final int count, final RangeKernel kernel) {
+		forEachRange(count, parallelThreshold, kernel);
+	}
+
+	/**
+	 * Runs a kernel over a range of independent work items, splitting it across
+	 * the pool when it is large enough to be worth it.
+	 *
+	 * @param count     The number of work items.
+	 * @param threshold The number of work items below which the kernel stays on
+	 *                  the calling thread, for items heavier than an amplitude
+	 *                  pair.
+	 * @param kernel    The kernel to run.
+	 */
+	static void forEachRange(final int count, final int threshold, final RangeKernel kernel) {
+		if (count <= threshold || pool.getParallelism() == 1) {
+			kernel.apply(0, count);
+		} else {
+			// split into a few blocks per worker so stragglers can be stolen.
+			int blockSize = Math.max(threshold, count / (pool.getParallelism() * 4));
+			pool.invoke(new RangeTask(kernel, 0, count, blockSize));
+		}
+	}
+
+	/**
+	 * Applies a run of gates to the state, fusing them first so the state is swept
+	 * as few times as possible.
+	 *
+	 * @param state The state to update.
+	 * @param gates The gates to apply. Gates in later columns are applied after
+	 *              gates in earlier ones.
+	 * @return The updated state. The state passed in is updated in place unless
+	 *         it had to move to a different storage along the way.
+	 */
+	public static StateVector applyGates(final StateVector state, final List<QuantumGate> gates) {
+		StateVector returnValue = state;
+		for (QuantumGate gate : GateFusion.fuse(gates, fusionQubits)) {
+			applyGate(returnValue, gate);
+			returnValue = returnValue.toPreferredStorage();
+		}
+		return returnValue;
+	}
+
+	/**
+	 * Applies a run of gates to every column of a matrix, as if each column were
+	 * a state. The matrix is swept as one state whose low wires pick the column,
+	 * so each gate updates all columns in a single parallel pass.
+	 *
+	 * @param matrix The matrix to update in place, with a power of two rows and
+	 *               columns.
+	 * @param gates  The gates to apply. Gates in later columns are applied after
+	 *               gates in earlier ones.
+	 */
+	public static void applyGates(final ComplexMatrix matrix, final List<QuantumGate> gates) {
+		StateVector state = matrix.asStateVector();
+		for (QuantumGate gate : GateFusion.fuse(gates, fusionQubits)) {
+			applyGate(state, gate);
+		}
+	}
+
+	/**
+	 * Applies a single gate to the state in place.
+	 *
+	 * @param state The state to update.
+	 * @param gate  The gate to apply.
+	 */
+	public static void applyGate(final StateVector state, final QuantumGate gate) {
+		gate.apply(state);
+	}
+
+	/**
+	 * Applies a 2x2 matrix to a target wire wherever the controls fire, using the
+	 * cheapest kernel for the kind of gate.
+	 *
+	 * @param state         The state to update.
+	 * @param target        The target wire.
+	 * @param controls      Mask of the control wires, bit n for wire n.
+	 * @param controlValues Mask of the values the control wires need to hold.
+	 * @param kind          How the matrix acts on the amplitudes.
+	 * @param matrix        The 2x2 matrix as {m00r, m00i, m01r, m01i, m10r, m10i,
+	 *                      m11r, m11i}.
+	 */
+	static void applyControlled(final StateVector state, final int target, final long controls,
+			final long controlValues, final GateKind kind, final double[] matrix) {
+		if (kind == GateKind.PERMUTATION) {
+			state.applyNot(target, controls, controlValues);
+		} else {
+			state.applyMatrix(target, controls, controlValues, matrix);
+		}
+	}
+
+	/**
+	 * Applies a single target gate to the state in place, moving it to other
+	 * wires on the way.
+	 *
+	 * @param state   The state to update.
+	 * @param gate    The gate to apply.
+	 * @param wireMap Maps each wire of the gate to the wire of the state it acts
+	 *                on.
+	 */
+	static void applyGate(final StateVector state, final QuantumGate gate, final IntUnaryOperator wireMap) {
+		applyControlled(state, wireMap.applyAsInt(gate.getTargets().get(0)), mapWires(gate.getControls(), wireMap),
+				mapWires(gate.getControlValues(), wireMap), gate.getKind(), gate.getPrimitiveTargetMatrix());
+	}
+
+	/**
+	 * @param wires   Mask of wires, bit n for wire n.
+	 * @param wireMap Maps each wire to another.
+	 * @return The mask of the wires they map to.
+	 */
+	private static long mapWires(final long wires, final IntUnaryOperator wireMap) {
+		long returnValue = 0;
+		for (long remaining = wires; remaining != 0; remaining &= remaining - 1) {
+			returnValue |= 1L << wireMap.applyAsInt(Long.numberOfTrailingZeros(remaining));
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @param matrix A 2x2 matrix as {m00r, m00i, m01r, m01i, m10r, m10i, m11r,
+	 *               m11i}.
+	 * @return Whether the matrix is the X gate, which only swaps amplitudes.
+	 */
+	static boolean isNot(final double[] matrix) {
+		return matrix[0] == 0 && matrix[1] == 0 && matrix[2] == 1 && matrix[3] == 0 && matrix[4] == 1
+				&& matrix[5] == 0 && matrix[6] == 0 && matrix[7] == 0;
+	}
+
+	/**
+	 * @param matrix A 2x2 complex matrix.
+	 * @return The matrix flattened to {m00r, m00i, m01r, m01i, m10r, m10i, m11r,
+	 *         m11i}.
+	 */
+	static double[] toPrimitive(final Complex[][] matrix) {
+		return new double[] { matrix[0][0].getReal(), matrix[0][0].getImaginary(), matrix[0][1].getReal(),
+				matrix[0][1].getImaginary(), matrix[1][0].getReal(), matrix[1][0].getImaginary(),
+				matrix[1][1].getReal(), matrix[1][1].getImaginary() };
+	}
+}
@@ -0,0 +1,43 @@
+package model;
+
+/**
+ * Plain Java implementation of the amplitude kernels. Used whenever the vector
+ * API is not available.
+ *
+ * @author cdberkstresser
+ *
+ */
+final class ScalarKernel implements AmplitudeKernel {
+	@Override
+	public void applyMatrix(final double[] real, final double[] imaginary, final int zero, final int one,
+			final int length, final double[] matrix) {
+		for (int n = 0; n < length; ++n) {
+			double zR = real[zero + n];
+			double zI = imaginary[zero + n];
+			double oR = real[one + n];
+			double oI = imaginary[one + n];
+			real[zero + n] = matrix[0] * zR - matrix[1] * zI + matrix[2] * oR - matrix[3] * oI;
+			imaginary[zero + n] = matrix[0] * zI + matrix[1] * zR + matrix[2] * oI + matrix[3] * oR;
+			real[one + n] = matrix[4] * zR - matrix[5] * zI + matrix[6] * oR - matrix[7] * oI;
+			imaginary[one + n] = matrix[4] * zI + matrix[5] * zR + matrix[6] * oI + matrix[7] * oR;
+		}
+	}
+
+	@Override
+	public void applyPhase(final double[] real, final double[] imaginary, final int from, final int length,
+			final double phaseReal, final double phaseImaginary) {
+		for (int n = from; n < from + length; ++n) {
+			ComplexMath.multiply(real, imaginary, n, phaseReal, phaseImaginary);
+		}
+	}
+
+	@Override
+	public double sumProbabilities(final double[] real, final double[] imaginary, final int from,
+			final int length) {
+		double sum = 0;
+		for (int n = from; n < from + length; ++n) {
+			sum += ComplexMath.norm(real[n], imaginary[n]);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,85 @@
+package model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * How many times each basis state was measured over a number of shots, as
+ * real hardware reports it. Only outcomes that were measured at least once are
+ * kept, in increasing order, in primitive arrays.
+ *
+ * @author cdberkstresser
+ *
+ */
+public final class ShotCounts implements Serializable {
+	/** Serializable ID. */
+	private static final long serialVersionUID = -1180398215547602319L;
+	/** The number of times each outcome was measured. */
+	private final long[] counts;
+	/** The number of wires measured. */
+	private final int numberOfQubits;
+	/** The measured basis states, in increasing order. */
+	private final long[] outcomes;
+	/** The total number of shots. */
+	private final long shots;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param numberOfQubits The number of wires measured.
+	 * @param outcomes       The measured basis states, in increasing order.
+	 * @param counts         The number of times each outcome was measured.
+	 */
+	ShotCounts(final int numberOfQubits, final long[] outcomes, final long[] counts) {
+		this.numberOfQubits = numberOfQubits;
+		this.outcomes = outcomes;
+		this.counts = counts;
+		this.shots = Arrays.stream(counts).sum();
+	}
+
+	/**
+	 * @param outcome A basis state.
+	 * @return The number of times the basis state was measured.
+	 */
+	public long getCount(final long outcome) {
+		int n = Arrays.binarySearch(outcomes, outcome);
+		return n < 0 ? 0 : counts[n];
+	}
+
+	/**
+	 * @param n The position of the outcome, from 0 to {@link #size()}.
+	 * @return The number of times the outcome was measured.
+	 */
+	public long getCountAt(final int n) {
+		return counts[n];
+	}
+
+	/**
+	 * @return The number of wires measured.
+	 */
+	public int getNumberOfQubits() {
+		return numberOfQubits;
+	}
+
+	/**
+	 * @param n The position of the outcome, from 0 to {@link #size()}.
+	 * @return The basis state measured.
+	 */
+	public long getOutcomeAt(final int n) {
+		return outcomes[n];
+	}
+
+	/**
+	 * @return The total number of shots.
+	 */
+	public long getShots() {
+		return shots;
+	}
+
+	/**
+	 * @return The number of different outcomes measured.
+	 */
+	public int size() {
+		return outcomes.length;
+	}
+}
@@ -0,0 +1,138 @@
+package model;
+
+import java.io.Serializable;
+
+/**
+ * An immutable record of a window of columns of a circuit, with the amplitudes
+ * and wire probabilities after each column in primitive arrays. Built once per
+ * version of the circuit so the tables of the view can read every cell by index
+ * instead of asking the circuit for whole states again. Columns past the last
+ * gate share the arrays of the final state.
+ *
+ * @author cdberkstresser
+ *
+ */
+public final class SimulationSnapshot implements Serializable {
+	/**
+	 * The most wires a circuit can have for its amplitudes to be kept. Wider
+	 * circuits, such as large sparse registers, only get wire probabilities.
+	 */
+	public static final int MAX_AMPLITUDE_QUBITS = 16;
+	/** Serializable ID. */
+	private static final long serialVersionUID = 2935064157714720392L;
+	/**
+	 * The number of leading columns with amplitudes. Columns from the first noise
+	 * on only have wire probabilities.
+	 */
+	private final int amplitudeColumns;
+	/** The first column of the window. */
+	private final int firstColumn;
+	/** The imaginary parts of the amplitudes, by column and basis state. */
+	private final double[][] imaginary;
+	/** The number of wires of the circuit. */
+	private final int numberOfQubits;
+	/** The probability of each wire measuring one, by column and wire. */
+	private final double[][] probabilities;
+	/** The real parts of the amplitudes, by column and basis state. */
+	private final double[][] real;
+	/** The modification version of the circuit the snapshot was taken of. */
+	private final long version;
+
+	/**
+	 * Constructor. The arrays are kept, so they must not be changed afterwards.
+	 *
+	 * @param version        The modification version of the circuit.
+	 * @param numberOfQubits The number of wires of the circuit.
+	 * @param firstColumn    The first column of the window.
+	 * @param real           The real parts of the amplitudes, by column and basis
+	 *                       state, for the leading columns without noise. Empty
+	 *                       columns past {@link #MAX_AMPLITUDE_QUBITS} wires.
+	 * @param imaginary      The imaginary parts of the amplitudes, in the same
+	 *                       layout.
+	 * @param probabilities  The probability of each wire measuring one, by column
+	 *                       and wire.
+	 */
+	SimulationSnapshot(final long version, final int numberOfQubits, final int firstColumn, final double[][] real,
+			final double[][] imaginary, final double[][] probabilities) {
+		this.version = version;
+		this.numberOfQubits = numberOfQubits;
+		this.firstColumn = firstColumn;
+		this.real = real;
+		this.imaginary = imaginary;
+		this.probabilities = probabilities;
+		int columns = 0;
+		while (columns < real.length && real[columns] != null) {
+			++columns;
+		}
+		amplitudeColumns = columns;
+	}
+
+	/**
+	 * @return The number of leading columns with amplitudes.
+	 */
+	public int getAmplitudeColumns() {
+		return amplitudeColumns;
+	}
+
+	/**
+	 * @return The number of columns in the window.
+	 */
+	public int getColumns() {
+		return probabilities.length;
+	}
+
+	/**
+	 * @return The first column of the window.
+	 */
+	public int getFirstColumn() {
+		return firstColumn;
+	}
+
+	/**
+	 * @param column The column, counted from the start of the window.
+	 * @param index  The basis state index.
+	 * @return The imaginary part of the amplitude of the basis state.
+	 */
+	public double getImaginary(final int column, final int index) {
+		return imaginary[column][index];
+	}
+
+	/**
+	 * @return The number of wires of the circuit.
+	 */
+	public int getNumberOfQubits() {
+		return numberOfQubits;
+	}
+
+	/**
+	 * @param column The column, counted from the start of the window.
+	 * @param index  The basis state index.
+	 * @return The real part of the amplitude of the basis state.
+	 */
+	public double getReal(final int column, final int index) {
+		return real[column][index];
+	}
+
+	/**
+	 * @return The number of basis states of each column with amplitudes.
+	 */
+	public int getSize() {
+		return amplitudeColumns == 0 ? 0 : real[0].length;
+	}
+
+	/**
+	 * @return The modification version of the circuit the snapshot was taken of.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @param column The column, counted from the start of the window.
+	 * @param wire   The wire.
+	 * @return The probability of the wire measuring one.
+	 */
+	public double getWireProbability(final int column, final int wire) {
+		return probabilities[column][wire];
+	}
+}
@@ -39,6 +39,8 @@ public class SingleQuantumGate implements QuantumGate {
 	 * controls.
 	 */
 	private final List<Integer> wires;
+	/** The primitive target matrix, shared through the gate matrix cache on first use. */
+	private transient volatile double[] primitiveTargetMatrix;
 
 	/**
 	 * Constructor.
@@ -72,6 +74,47 @@ public class SingleQuantumGate implements QuantumGate {
 		return gates.get(gateType);
 	}
 
+	/**
+	 * Applies the gate to its wire.
+	 *
+	 * @param state The state to update.
+	 */
+	@Override
+	public void apply(final StateVector state) {
+		QuantumSimulator.applyControlled(state, wires.get(0), 0, 0, getKind(), getPrimitiveTargetMatrix());
+	}
+
+	/**
+	 * @return The shared 2x2 target matrix, looked up once per gate.
+	 */
+	@Override
+	public double[] getPrimitiveTargetMatrix() {
+		double[] returnValue = primitiveTargetMatrix;
+		if (returnValue == null) {
+			returnValue = GateMatrixCache.getTargetMatrix(this);
+			primitiveTargetMatrix = returnValue;
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @return How the gate acts on the amplitudes of a state.
+	 */
+	@Override
+	public GateKind getKind() {
+		switch (gateType) {
+		case "X":
+			return GateKind.PERMUTATION;
+		case "I":
+		case "Z":
+		case "S":
+		case "T":
+			return GateKind.DIAGONAL;
+		default:
+			return GateKind.UNITARY;
+		}
+	}
+
 	/**
 	 * @return The gate type.
 	 */
@@ -29,6 +29,8 @@ public class SingleQuantumGateWithParameter implements QuantumGateWithParameter
 	 * The value associated with this quantum gate.
 	 */
 	private final double value;
+	/** The primitive target matrix, shared through the gate matrix cache on first use. */
+	private transient volatile double[] primitiveTargetMatrix;
 
 	/**
 	 * Constructor.
@@ -62,6 +64,13 @@ public class SingleQuantumGateWithParameter implements QuantumGateWithParameter
 	 */
 	@Override
 	public Complex[][] getGateMatrix() {
+		return GateMatrixCache.getGateMatrix(this, this::buildGateMatrix);
+	}
+
+	/**
+	 * @return A new matrix for this gate type and parameter.
+	 */
+	private Complex[][] buildGateMatrix() {
 		switch (gateType) {
 		case "Rx":
 			return new Complex[][] { { new Complex(Math.cos(value / 2), 0), new Complex(0, -Math.sin(value / 2)) },
@@ -77,6 +86,37 @@ public class SingleQuantumGateWithParameter implements QuantumGateWithParameter
 		}
 	}
 
+	/**
+	 * Applies the gate to its wire.
+	 *
+	 * @param state The state to update.
+	 */
+	@Override
+	public void apply(final StateVector state) {
+		QuantumSimulator.applyControlled(state, wires.get(0), 0, 0, getKind(), getPrimitiveTargetMatrix());
+	}
+
+	/**
+	 * @return The shared 2x2 target matrix, looked up once per gate.
+	 */
+	@Override
+	public double[] getPrimitiveTargetMatrix() {
+		double[] returnValue = primitiveTargetMatrix;
+		if (returnValue == null) {
+			returnValue = GateMatrixCache.getTargetMatrix(this);
+			primitiveTargetMatrix = returnValue;
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @return How the gate acts on the amplitudes of a state.
+	 */
+	@Override
+	public GateKind getKind() {
+		return gateType.equals("Rz") ? GateKind.DIAGONAL : GateKind.UNITARY;
+	}
+
 	/**
 	 * @return The gate type.
 	 */
@@ -0,0 +1,360 @@
+package model;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A state that only stores its nonzero amplitudes, in an open addressing hash
+ * table keyed by basis state index. Suits circuits such as GHZ, W and Bell
+ * states whose amplitudes stay concentrated on a handful of basis states no
+ * matter how many wires they span.
+ *
+ * @author cdberkstresser
+ *
+ */
+final class SparseStateVector extends StateVector {
+	/** Marks an unused slot. Basis state indices are never negative. */
+	private static final long EMPTY = -1;
+	/** Amplitudes with a smaller squared magnitude than this are dropped. */
+	private static final double EPSILON = 1e-30;
+	/** Serializable ID. */
+	private static final long serialVersionUID = 5215386618049651064L;
+	/** The number of amplitudes stored. */
+	private int count;
+	/** The imaginary parts of the amplitudes, by slot. */
+	private double[] imaginary;
+	/** The basis state index stored in each slot. */
+	private long[] keys;
+	/** The real parts of the amplitudes, by slot. */
+	private double[] real;
+
+	/**
+	 * Constructor. Starts out with no amplitudes at all.
+	 *
+	 * @param numberOfQubits The number of wires this state spans.
+	 * @param expected       The number of amplitudes expected to be stored.
+	 */
+	SparseStateVector(final int numberOfQubits, final int expected) {
+		super(numberOfQubits);
+		// keep the table at most half full so probes stay short.
+		int capacity = Integer.highestOneBit(Math.max(4, expected) * 2 - 1) << 1;
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		real = new double[capacity];
+		imaginary = new double[capacity];
+	}
+
+	/**
+	 * @param wires The wires whose initial values make up the state.
+	 * @return The tensor product of the initial values, expanded only over the
+	 *         nonzero amplitudes.
+	 */
+	static SparseStateVector productOf(final List<QuantumWire> wires) {
+		SparseStateVector state = new SparseStateVector(wires.size(), 1);
+		state.put(0, 1, 0);
+		for (QuantumWire wire : wires) {
+			Complex x = wire.getInitialValue().getX();
+			Complex y = wire.getInitialValue().getY();
+			SparseStateVector next = new SparseStateVector(wires.size(), state.count * 2);
+			for (int slot = 0; slot < state.keys.length; ++slot) {
+				if (state.keys[slot] != EMPTY) {
+					long key = state.keys[slot];
+					double aR = state.real[slot];
+					double aI = state.imaginary[slot];
+					next.putIfNonZero(key << 1, aR * x.getReal() - aI * x.getImaginary(),
+							aR * x.getImaginary() + aI * x.getReal());
+					next.putIfNonZero((key << 1) | 1, aR * y.getReal() - aI * y.getImaginary(),
+							aR * y.getImaginary() + aI * y.getReal());
+				}
+			}
+			state = next;
+		}
+		return state;
+	}
+
+	@Override
+	public StateVector copy() {
+		SparseStateVector returnValue = new SparseStateVector(getNumberOfQubits(), 1);
+		returnValue.count = count;
+		returnValue.keys = keys.clone();
+		returnValue.real = real.clone();
+		returnValue.imaginary = imaginary.clone();
+		return returnValue;
+	}
+
+	@Override
+	public double getImaginary(final long index) {
+		int slot = find(index);
+		return keys[slot] == EMPTY ? 0 : imaginary[slot];
+	}
+
+	@Override
+	public double getReal(final long index) {
+		int slot = find(index);
+		return keys[slot] == EMPTY ? 0 : real[slot];
+	}
+
+	@Override
+	void applyMatrix(final int target, final long controls, final long controlValues, final double[] matrix) {
+		long stride = getBit(target);
+		long controlMask = getIndexMask(controls);
+		long controlBits = getIndexMask(controlValues);
+		SparseStateVector next = new SparseStateVector(getNumberOfQubits(), count * 2);
+		for (int slot = 0; slot < keys.length; ++slot) {
+			long key = keys[slot];
+			if (key == EMPTY) {
+				continue;
+			}
+			if ((key & controlMask) != controlBits) {
+				next.put(key, real[slot], imaginary[slot]);
+				continue;
+			}
+			long zero = key & ~stride;
+			long one = key | stride;
+			int zeroSlot = find(zero);
+			if (key == one && keys[zeroSlot] != EMPTY) {
+				continue; // the pair was handled from its zero half.
+			}
+			int oneSlot = find(one);
+			double zR = keys[zeroSlot] == EMPTY ? 0 : real[zeroSlot];
+			double zI = keys[zeroSlot] == EMPTY ? 0 : imaginary[zeroSlot];
+			double oR = keys[oneSlot] == EMPTY ? 0 : real[oneSlot];
+			double oI = keys[oneSlot] == EMPTY ? 0 : imaginary[oneSlot];
+			next.putIfNonZero(zero, matrix[0] * zR - matrix[1] * zI + matrix[2] * oR - matrix[3] * oI,
+					matrix[0] * zI + matrix[1] * zR + matrix[2] * oI + matrix[3] * oR);
+			next.putIfNonZero(one, matrix[4] * zR - matrix[5] * zI + matrix[6] * oR - matrix[7] * oI,
+					matrix[4] * zI + matrix[5] * zR + matrix[6] * oI + matrix[7] * oR);
+		}
+		count = next.count;
+		keys = next.keys;
+		real = next.real;
+		imaginary = next.imaginary;
+	}
+
+	@Override
+	void applyBlock(final int[] wires, final double[] matrix) {
+		int size = 1 << wires.length;
+		long[] offsets = getBlockOffsets(wires);
+		long blockMask = offsets[size - 1];
+		double[] inR = new double[size];
+		double[] inI = new double[size];
+		SparseStateVector next = new SparseStateVector(getNumberOfQubits(), count * 2);
+		// only the first basis state of each group handled is kept, as a set.
+		SparseStateVector handled = new SparseStateVector(getNumberOfQubits(), count);
+		for (int slot = 0; slot < keys.length; ++slot) {
+			if (keys[slot] == EMPTY) {
+				continue;
+			}
+			long first = keys[slot] & ~blockMask;
+			if (handled.keys[handled.find(first)] != EMPTY) {
+				continue;
+			}
+			handled.put(first, 0, 0);
+			for (int n = 0; n < size; ++n) {
+				int member = find(first + offsets[n]);
+				inR[n] = keys[member] == EMPTY ? 0 : real[member];
+				inI[n] = keys[member] == EMPTY ? 0 : imaginary[member];
+			}
+			for (int row = 0; row < size; ++row) {
+				double sumR = 0;
+				double sumI = 0;
+				for (int n = 0, m = 2 * row * size; n < size; ++n, m += 2) {
+					sumR += matrix[m] * inR[n] - matrix[m + 1] * inI[n];
+					sumI += matrix[m] * inI[n] + matrix[m + 1] * inR[n];
+				}
+				next.putIfNonZero(first + offsets[row], sumR, sumI);
+			}
+		}
+		count = next.count;
+		keys = next.keys;
+		real = next.real;
+		imaginary = next.imaginary;
+	}
+
+	@Override
+	void applyNot(final int target, final long controls, final long controlValues) {
+		long stride = getBit(target);
+		long controlMask = getIndexMask(controls);
+		long controlBits = getIndexMask(controlValues);
+		// flipping a wire only renames basis states, so the amplitudes are moved as is.
+		SparseStateVector next = new SparseStateVector(getNumberOfQubits(), count);
+		for (int slot = 0; slot < keys.length; ++slot) {
+			long key = keys[slot];
+			if (key != EMPTY) {
+				next.put((key & controlMask) == controlBits ? key ^ stride : key, real[slot], imaginary[slot]);
+			}
+		}
+		keys = next.keys;
+		real = next.real;
+		imaginary = next.imaginary;
+	}
+
+	@Override
+	void applyDiagonal(final int[] wires, final double[] phases) {
+		for (int slot = 0; slot < keys.length; ++slot) {
+			if (keys[slot] != EMPTY) {
+				int phase = 2 * getPattern(keys[slot], wires);
+				ComplexMath.multiply(real, imaginary, slot, phases[phase], phases[phase + 1]);
+			}
+		}
+	}
+
+	@Override
+	public double[] getMarginal(final int... wires) {
+		checkMarginalWires(wires);
+		double[] returnValue = new double[1 << wires.length];
+		for (int slot = 0; slot < keys.length; ++slot) {
+			if (keys[slot] != EMPTY) {
+				returnValue[getPattern(keys[slot], wires)] += ComplexMath.norm(real[slot], imaginary[slot]);
+			}
+		}
+		return returnValue;
+	}
+
+	@Override
+	public double[] getWireProbabilities() {
+		double[] returnValue = new double[getNumberOfQubits()];
+		for (int slot = 0; slot < keys.length; ++slot) {
+			if (keys[slot] != EMPTY) {
+				double probability = ComplexMath.norm(real[slot], imaginary[slot]);
+				for (long remaining = keys[slot]; remaining != 0; remaining &= remaining - 1) {
+					returnValue[getNumberOfQubits() - 1 - Long.numberOfTrailingZeros(remaining)] += probability;
+				}
+			}
+		}
+		return returnValue;
+	}
+
+	@Override
+	long getMemoryBytes() {
+		return 24L * keys.length;
+	}
+
+	@Override
+	long[] getSupport() {
+		return Arrays.stream(keys).filter(x -> x != EMPTY).sorted().toArray();
+	}
+
+	@Override
+	double[] getWireCoherence(final int wire) {
+		long bit = getBit(wire);
+		double sumR = 0;
+		double sumI = 0;
+		for (int slot = 0; slot < keys.length; ++slot) {
+			if (keys[slot] != EMPTY && (keys[slot] & bit) == 0) {
+				int partner = find(keys[slot] | bit);
+				if (keys[partner] != EMPTY) {
+					sumR += ComplexMath.multiplyReal(real[slot], imaginary[slot], real[partner], -imaginary[partner]);
+					sumI += ComplexMath.multiplyImaginary(real[slot], imaginary[slot], real[partner],
+							-imaginary[partner]);
+				}
+			}
+		}
+		return new double[] { sumR, sumI };
+	}
+
+	@Override
+	double getWireProbability(final int wire) {
+		long bit = getBit(wire);
+		double returnValue = 0;
+		for (int slot = 0; slot < keys.length; ++slot) {
+			if (keys[slot] != EMPTY && (keys[slot] & bit) != 0) {
+				returnValue += ComplexMath.norm(real[slot], imaginary[slot]);
+			}
+		}
+		return returnValue;
+	}
+
+	@Override
+	void setAmplitude(final long index, final double real, final double imaginary) {
+		put(index, real, imaginary);
+	}
+
+	/**
+	 * Moves to dense storage once too many basis states are populated for the
+	 * hash table to pay off.
+	 */
+	@Override
+	StateVector toPreferredStorage() {
+		if (count <= size() * QuantumSimulator.getSparseFillRatio()) {
+			return this;
+		}
+		StateVector returnValue = allocate(getNumberOfQubits());
+		returnValue.setAmplitude(0, 0, 0);
+		for (int slot = 0; slot < keys.length; ++slot) {
+			if (keys[slot] != EMPTY) {
+				returnValue.setAmplitude(keys[slot], real[slot], imaginary[slot]);
+			}
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @param key The basis state index to look for.
+	 * @return The slot holding the key, or the empty slot where it would go.
+	 */
+	private int find(final long key) {
+		int mask = keys.length - 1;
+		// fibonacci hashing spreads the low bits that basis states share.
+		int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+		while (keys[slot] != EMPTY && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Stores an amplitude, growing the table if needed.
+	 *
+	 * @param key       The basis state index.
+	 * @param real      The real part of the amplitude.
+	 * @param imaginary The imaginary part of the amplitude.
+	 */
+	private void put(final long key, final double real, final double imaginary) {
+		int slot = find(key);
+		if (keys[slot] == EMPTY) {
+			if (2 * (count + 1) > keys.length) {
+				grow();
+				slot = find(key);
+			}
+			keys[slot] = key;
+			++count;
+		}
+		this.real[slot] = real;
+		this.imaginary[slot] = imaginary;
+	}
+
+	/**
+	 * Stores an amplitude unless it is zero.
+	 *
+	 * @param key       The basis state index.
+	 * @param real      The real part of the amplitude.
+	 * @param imaginary The imaginary part of the amplitude.
+	 */
+	private void putIfNonZero(final long key, final double real, final double imaginary) {
+		if (ComplexMath.norm(real, imaginary) >= EPSILON) {
+			put(key, real, imaginary);
+		}
+	}
+
+	/**
+	 * Doubles the table and rehashes every amplitude.
+	 */
+	private void grow() {
+		long[] oldKeys = keys;
+		double[] oldReal = real;
+		double[] oldImaginary = imaginary;
+		keys = new long[oldKeys.length * 2];
+		Arrays.fill(keys, EMPTY);
+		real = new double[keys.length];
+		imaginary = new double[keys.length];
+		for (int slot = 0; slot < oldKeys.length; ++slot) {
+			if (oldKeys[slot] != EMPTY) {
+				int newSlot = find(oldKeys[slot]);
+				keys[newSlot] = oldKeys[slot];
+				real[newSlot] = oldReal[slot];
+				imaginary[newSlot] = oldImaginary[slot];
+			}
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package model;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per circuit store of the states after each column, held within a byte
+ * budget. Every few columns a checkpoint is kept, and any other column is
+ * replayed from the closest stored column before it. Columns that are not
+ * checkpoints are kept too while there is room, but are the first to go, so a
+ * wide circuit can be scrubbed column by column in bounded memory.
+ *
+ * @author cdberkstresser
+ *
+ */
+public final class StateCheckpoints implements Serializable {
+	/** Serializable ID. */
+	private static final long serialVersionUID = -2874451907361372203L;
+
+	/**
+	 * The most bytes of states kept. Defaults to the quantum.checkpointBytes
+	 * system property.
+	 */
+	private long budget = Math.max(0, Long.getLong("quantum.checkpointBytes", 256L << 20));
+
+	/** The number of bytes of states currently kept. */
+	private long bytes;
+
+	/** The number of stored states dropped to stay within budget. */
+	private long evictions;
+
+	/** The number of lookups answered from the store. */
+	private long hits;
+
+	/**
+	 * The number of columns between checkpoints. Defaults to the
+	 * quantum.checkpointInterval system property.
+	 */
+	private int interval = Math.max(1, Integer.getInteger("quantum.checkpointInterval", 4));
+
+	/** The number of lookups that had to replay columns. */
+	private long misses;
+
+	/** The number of columns of gates replayed to answer lookups. */
+	private long replayedColumns;
+
+	/** The stored states by column, least recently used first. */
+	private final LinkedHashMap<Integer, StateVector> states = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * Empties the store. The counters are kept.
+	 */
+	void clear() {
+		states.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * @param column The column of the state.
+	 * @return The stored state after the column, or null when it has to be
+	 *         replayed.
+	 */
+	StateVector get(final int column) {
+		StateVector returnValue = states.get(column);
+		if (returnValue == null) {
+			++misses;
+		} else {
+			++hits;
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @return The most bytes of states kept.
+	 */
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @return The number of bytes of states currently kept.
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @param column A column.
+	 * @return The closest column at or before it with a stored state, or -1 when
+	 *         there is none.
+	 */
+	int getClosestColumn(final int column) {
+		int returnValue = -1;
+		for (int stored : states.keySet()) {
+			if (stored <= column && stored > returnValue) {
+				returnValue = stored;
+			}
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @return The number of stored states dropped to stay within budget.
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return The number of lookups answered from the store.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of columns between checkpoints.
+	 */
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return The number of lookups that had to replay columns.
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @param column A column.
+	 * @return The first checkpoint column after it.
+	 */
+	int getNextCheckpoint(final int column) {
+		return (column / interval + 1) * interval;
+	}
+
+	/**
+	 * @return The number of columns of gates replayed to answer lookups.
+	 */
+	public long getReplayedColumns() {
+		return replayedColumns;
+	}
+
+	/**
+	 * @param column The column of a stored state.
+	 * @return The stored state, without counting a lookup.
+	 */
+	StateVector peek(final int column) {
+		return states.get(column);
+	}
+
+	/**
+	 * Stores the state after a column, then drops states until the store is
+	 * within budget again.
+	 *
+	 * @param column The column of the state.
+	 * @param state  The state after the column. Kept, so it must not be changed.
+	 * @return Whether the state was kept.
+	 */
+	boolean put(final int column, final StateVector state) {
+		long weight = state.getMemoryBytes();
+		if (weight > budget) {
+			return false;
+		}
+		StateVector previous = states.put(column, state);
+		if (previous != null) {
+			bytes -= previous.getMemoryBytes();
+		}
+		bytes += weight;
+		evict(column);
+		return true;
+	}
+
+	/**
+	 * @param columns The number of columns of gates replayed.
+	 */
+	void recordReplay(final int columns) {
+		replayedColumns += columns;
+	}
+
+	/**
+	 * Drops the states after every column from a position on.
+	 *
+	 * @param column The first column whose state is dropped.
+	 */
+	void removeFrom(final int column) {
+		Iterator<Map.Entry<Integer, StateVector>> entries = states.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<Integer, StateVector> entry = entries.next();
+			if (entry.getKey() >= column) {
+				bytes -= entry.getValue().getMemoryBytes();
+				entries.remove();
+			}
+		}
+	}
+
+	/**
+	 * @param budget The most bytes of states kept.
+	 */
+	public void setBudget(final long budget) {
+		if (budget < 0) {
+			throw new IllegalArgumentException("The checkpoint budget can not be negative.");
+		}
+		this.budget = budget;
+		evict(-1);
+	}
+
+	/**
+	 * @param interval The number of columns between checkpoints.
+	 */
+	public void setInterval(final int interval) {
+		if (interval < 1) {
+			throw new IllegalArgumentException("Checkpoints need at least one column between them.");
+		}
+		this.interval = interval;
+	}
+
+	/**
+	 * @return The number of states kept.
+	 */
+	public int size() {
+		return states.size();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d states in %.1f of %.1f MB, %d hits, %d misses, %d columns replayed, %d evictions",
+				states.size(), bytes / 1048576.0, budget / 1048576.0, hits, misses, replayedColumns, evictions);
+	}
+
+	/**
+	 * Drops the least recently used states, columns between checkpoints first,
+	 * until the store is within budget.
+	 *
+	 * @param keep A column to keep, or -1 to keep none.
+	 */
+	private void evict(final int keep) {
+		for (boolean checkpoints : new boolean[] { false, true }) {
+			Iterator<Map.Entry<Integer, StateVector>> entries = states.entrySet().iterator();
+			while (bytes > budget && entries.hasNext()) {
+				Map.Entry<Integer, StateVector> entry = entries.next();
+				if (entry.getKey() != keep && (entry.getKey() % interval == 0) == checkpoints) {
+					bytes -= entry.getValue().getMemoryBytes();
+					entries.remove();
+					++evictions;
+				}
+			}
+		}
+	}
+}
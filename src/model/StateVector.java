@@ -0,0 +1,481 @@
+package model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.LongStream;
+
+/**
+ * The amplitudes of a circuit state. Wire zero is the most significant bit of a
+ * basis state index, matching the order in which the wires are tensored
+ * together. Only the model package can change the amplitudes, so states handed
+ * out of the circuit are read only.
+ *
+ * @author cdberkstresser
+ *
+ */
+public abstract class StateVector implements Serializable {
+	/** Serializable ID. */
+	private static final long serialVersionUID = -3409178846370263718L;
+	/**
+	 * The number of amplitudes or amplitude groups a kernel hands to the pool at
+	 * once.
+	 */
+	private static final long BLOCK_GROUPS = 1L << 30;
+	/** The most wires a joint marginal can span. */
+	public static final int MAX_MARGINAL_QUBITS = 20;
+	/** The number of low index bits read as one block when taking marginals. */
+	private static final int MARGINAL_BITS = 10;
+	/** The number of wires this state spans. */
+	private final int numberOfQubits;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param numberOfQubits The number of wires this state spans.
+	 */
+	StateVector(final int numberOfQubits) {
+		this.numberOfQubits = numberOfQubits;
+	}
+
+	/**
+	 * Allocates a state in the storage the simulator is configured to use for a
+	 * register of this size.
+	 *
+	 * @param numberOfQubits The number of wires the state spans.
+	 * @return A new state set to |00...0>.
+	 */
+	public static StateVector allocate(final int numberOfQubits) {
+		if (numberOfQubits >= QuantumSimulator.getOffHeapQubits() || numberOfQubits > HeapStateVector.MAX_QUBITS) {
+			return new OffHeapStateVector(numberOfQubits, QuantumSimulator.getStateDirectory());
+		}
+		return new HeapStateVector(numberOfQubits);
+	}
+
+	/**
+	 * @param wires The wires whose initial values make up the state.
+	 * @return The tensor product of the initial values of the wires.
+	 */
+	public static StateVector fromWires(final List<QuantumWire> wires) {
+		if (wires.size() >= QuantumSimulator.getSparseQubits()) {
+			return SparseStateVector.productOf(wires).toPreferredStorage();
+		}
+		StateVector state = allocate(wires.size());
+		long length = 1;
+		for (QuantumWire wire : wires) {
+			double xR = wire.getInitialValue().getX().getReal();
+			double xI = wire.getInitialValue().getX().getImaginary();
+			double yR = wire.getInitialValue().getY().getReal();
+			double yI = wire.getInitialValue().getY().getImaginary();
+			// walk backwards so the amplitudes are expanded without overwriting.
+			for (long n = length - 1; n >= 0; --n) {
+				double aR = state.getReal(n);
+				double aI = state.getImaginary(n);
+				state.setAmplitude(2 * n, aR * xR - aI * xI, aR * xI + aI * xR);
+				state.setAmplitude(2 * n + 1, aR * yR - aI * yI, aR * yI + aI * yR);
+			}
+			length *= 2;
+		}
+		return state;
+	}
+
+	/**
+	 * @return A copy of this state in the same kind of storage.
+	 */
+	public abstract StateVector copy();
+
+	/**
+	 * @param index The basis state index.
+	 * @return The amplitude of the basis state as a complex number.
+	 */
+	public Complex getAmplitude(final long index) {
+		return new Complex(getReal(index), getImaginary(index));
+	}
+
+	/**
+	 * Copies a run of amplitudes into the arrays provided.
+	 *
+	 * @param from                 The first basis state index to copy.
+	 * @param realDestination      The array to receive the real parts.
+	 * @param imaginaryDestination The array to receive the imaginary parts.
+	 */
+	public void getAmplitudes(final long from, final double[] realDestination, final double[] imaginaryDestination) {
+		for (int n = 0; n < realDestination.length; ++n) {
+			realDestination[n] = getReal(from + n);
+			imaginaryDestination[n] = getImaginary(from + n);
+		}
+	}
+
+	/**
+	 * @param wires The wires to measure, the first being the most significant bit
+	 *              of the outcome.
+	 * @return The joint probability of every outcome of measuring just those
+	 *         wires, taken in one pass over the state.
+	 */
+	public double[] getMarginal(final int... wires) {
+		checkMarginalWires(wires);
+		int lowBits = Math.min(numberOfQubits, MARGINAL_BITS);
+		int blockSize = 1 << lowBits;
+		int[] lowPatterns = new int[blockSize];
+		for (int n = 0; n < blockSize; ++n) {
+			lowPatterns[n] = getPattern(n, wires);
+		}
+		double[] returnValue = new double[1 << wires.length];
+		QuantumSimulator.forEachRange(Math.toIntExact(size() >> lowBits),
+				Math.max(1, QuantumSimulator.getParallelThreshold() >> lowBits), (from, to) -> {
+					double[] real = new double[blockSize];
+					double[] imaginary = new double[blockSize];
+					double[] local = new double[returnValue.length];
+					for (int block = from; block < to; ++block) {
+						long first = (long) block << lowBits;
+						int high = getPattern(first, wires);
+						getAmplitudes(first, real, imaginary);
+						for (int n = 0; n < blockSize; ++n) {
+							local[high | lowPatterns[n]] += ComplexMath.norm(real[n], imaginary[n]);
+						}
+					}
+					synchronized (returnValue) {
+						for (int n = 0; n < local.length; ++n) {
+							returnValue[n] += local[n];
+						}
+					}
+				});
+		return returnValue;
+	}
+
+	/**
+	 * @return The probability of each wire measuring one, all taken in one pass
+	 *         over the state. Each block of amplitudes adds its total to the high
+	 *         index bits it holds, and its amplitudes to a table of the low bits
+	 *         that is only split into wires once at the end.
+	 */
+	public double[] getWireProbabilities() {
+		int lowBits = Math.min(numberOfQubits, MARGINAL_BITS);
+		int blockSize = 1 << lowBits;
+		double[] bitSums = new double[numberOfQubits];
+		QuantumSimulator.forEachRange(Math.toIntExact(size() >> lowBits),
+				Math.max(1, QuantumSimulator.getParallelThreshold() >> lowBits), (from, to) -> {
+					double[] real = new double[blockSize];
+					double[] imaginary = new double[blockSize];
+					double[] low = new double[blockSize];
+					double[] local = new double[numberOfQubits];
+					for (int block = from; block < to; ++block) {
+						getAmplitudes((long) block << lowBits, real, imaginary);
+						double sum = 0;
+						for (int n = 0; n < blockSize; ++n) {
+							double probability = ComplexMath.norm(real[n], imaginary[n]);
+							low[n] += probability;
+							sum += probability;
+						}
+						for (int remaining = block; remaining != 0; remaining &= remaining - 1) {
+							local[lowBits + Integer.numberOfTrailingZeros(remaining)] += sum;
+						}
+					}
+					for (int n = 1; n < blockSize; ++n) {
+						for (int remaining = n; remaining != 0; remaining &= remaining - 1) {
+							local[Integer.numberOfTrailingZeros(remaining)] += low[n];
+						}
+					}
+					synchronized (bitSums) {
+						for (int bit = 0; bit < numberOfQubits; ++bit) {
+							bitSums[bit] += local[bit];
+						}
+					}
+				});
+		double[] returnValue = new double[numberOfQubits];
+		for (int wire = 0; wire < numberOfQubits; ++wire) {
+			returnValue[wire] = bitSums[numberOfQubits - 1 - wire];
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @param index The basis state index.
+	 * @return The imaginary part of the amplitude of the basis state.
+	 */
+	public abstract double getImaginary(long index);
+
+	/**
+	 * @return The approximate number of bytes the amplitudes take.
+	 */
+	long getMemoryBytes() {
+		return 16 * size();
+	}
+
+	/**
+	 * @return The number of wires this state spans.
+	 */
+	public int getNumberOfQubits() {
+		return numberOfQubits;
+	}
+
+	/**
+	 * @param index The basis state index.
+	 * @return The probability of measuring the basis state.
+	 */
+	public double getProbability(final long index) {
+		return ComplexMath.norm(getReal(index), getImaginary(index));
+	}
+
+	/**
+	 * @param index The basis state index.
+	 * @return The real part of the amplitude of the basis state.
+	 */
+	public abstract double getReal(long index);
+
+	/**
+	 * @return The number of basis states.
+	 */
+	public long size() {
+		return 1L << numberOfQubits;
+	}
+
+	/**
+	 * @return The state as a single column matrix.
+	 */
+	public Complex[][] toColumn() {
+		Complex[][] returnValue = new Complex[Math.toIntExact(size())][1];
+		for (int n = 0; n < returnValue.length; ++n) {
+			returnValue[n][0] = getAmplitude(n);
+		}
+		return returnValue;
+	}
+
+	/**
+	 * Applies a dense matrix to a few wires at once, a group of amplitudes at a
+	 * time. The groups are split across the pool, so storages that can not be
+	 * written from several threads need to override this.
+	 *
+	 * @param wires  The wires the matrix acts on, the first being the most
+	 *               significant bit of a row or column.
+	 * @param matrix The matrix with interleaved real and imaginary parts in row
+	 *               major order.
+	 */
+	void applyBlock(final int[] wires, final double[] matrix) {
+		int size = 1 << wires.length;
+		long[] offsets = getBlockOffsets(wires);
+		long[] bits = new long[wires.length];
+		for (int n = 0; n < wires.length; ++n) {
+			bits[n] = getBit(wires[n]);
+		}
+		// inserting from the lowest bit up keeps the earlier insertions in place.
+		Arrays.sort(bits);
+		long groups = size() >> wires.length;
+		for (long base = 0; base < groups; base += BLOCK_GROUPS) {
+			final long offset = base;
+			QuantumSimulator.forEachRange((int) Math.min(BLOCK_GROUPS, groups - base), (from, to) -> {
+				double[] inR = new double[size];
+				double[] inI = new double[size];
+				for (long group = offset + from; group < offset + to; ++group) {
+					long first = group;
+					for (long bit : bits) {
+						first = insertZeroBit(first, bit);
+					}
+					for (int n = 0; n < size; ++n) {
+						inR[n] = getReal(first + offsets[n]);
+						inI[n] = getImaginary(first + offsets[n]);
+					}
+					for (int row = 0; row < size; ++row) {
+						double sumR = 0;
+						double sumI = 0;
+						for (int n = 0, m = 2 * row * size; n < size; ++n, m += 2) {
+							sumR += matrix[m] * inR[n] - matrix[m + 1] * inI[n];
+							sumI += matrix[m] * inI[n] + matrix[m + 1] * inR[n];
+						}
+						setAmplitude(first + offsets[row], sumR, sumI);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Multiplies every amplitude by a phase chosen by the bits its basis state
+	 * holds on a few wires. The amplitudes are split across the pool, so storages
+	 * that can not be written from several threads need to override this.
+	 *
+	 * @param wires  The wires that pick the phase, the first being the most
+	 *               significant bit of the table index.
+	 * @param phases The table of phases with interleaved real and imaginary parts.
+	 */
+	void applyDiagonal(final int[] wires, final double[] phases) {
+		for (long base = 0; base < size(); base += BLOCK_GROUPS) {
+			final long offset = base;
+			QuantumSimulator.forEachRange((int) Math.min(BLOCK_GROUPS, size() - base), (from, to) -> {
+				for (long index = offset + from; index < offset + to; ++index) {
+					int phase = 2 * getPattern(index, wires);
+					double real = getReal(index);
+					double imaginary = getImaginary(index);
+					setAmplitude(index, ComplexMath.multiplyReal(real, imaginary, phases[phase], phases[phase + 1]),
+							ComplexMath.multiplyImaginary(real, imaginary, phases[phase], phases[phase + 1]));
+				}
+			});
+		}
+	}
+
+	/**
+	 * Flips the target wire of every basis state whose control wires hold the
+	 * requested values, by swapping amplitudes rather than multiplying them. The
+	 * pairs are split across the pool, so storages that can not be written from
+	 * several threads need to override this.
+	 *
+	 * @param target        The target wire.
+	 * @param controls      Mask of the control wires, bit n for wire n.
+	 * @param controlValues Mask of the values the control wires need to hold.
+	 */
+	void applyNot(final int target, final long controls, final long controlValues) {
+		long stride = getBit(target);
+		long controlMask = getIndexMask(controls);
+		long controlBits = getIndexMask(controlValues);
+		long pairs = size() / 2;
+		for (long base = 0; base < pairs; base += BLOCK_GROUPS) {
+			final long offset = base;
+			QuantumSimulator.forEachRange((int) Math.min(BLOCK_GROUPS, pairs - base), (from, to) -> {
+				for (long pair = offset + from; pair < offset + to; ++pair) {
+					long zero = insertZeroBit(pair, stride);
+					if ((zero & controlMask) == controlBits) {
+						double real = getReal(zero);
+						double imaginary = getImaginary(zero);
+						setAmplitude(zero, getReal(zero + stride), getImaginary(zero + stride));
+						setAmplitude(zero + stride, real, imaginary);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Applies a 2x2 matrix to the target wire of every basis state whose control
+	 * wires hold the requested values.
+	 *
+	 * @param target        The target wire.
+	 * @param controls      Mask of the control wires, bit n for wire n.
+	 * @param controlValues Mask of the values the control wires need to hold.
+	 * @param matrix        The 2x2 matrix as {m00r, m00i, m01r, m01i, m10r, m10i,
+	 *                      m11r, m11i}.
+	 */
+	abstract void applyMatrix(int target, long controls, long controlValues, double[] matrix);
+
+	/**
+	 * @param wires The wires of a block, the first being the most significant.
+	 * @return The distance of each basis state of the block from the first basis
+	 *         state of its group.
+	 */
+	long[] getBlockOffsets(final int[] wires) {
+		long[] returnValue = new long[1 << wires.length];
+		for (int n = 0; n < returnValue.length; ++n) {
+			for (int w = 0; w < wires.length; ++w) {
+				if ((n & (1 << (wires.length - 1 - w))) != 0) {
+					returnValue[n] |= getBit(wires[w]);
+				}
+			}
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @param wires The wires of a joint marginal.
+	 */
+	void checkMarginalWires(final int[] wires) {
+		if (wires.length > MAX_MARGINAL_QUBITS) {
+			throw new IllegalArgumentException("Marginals can only span up to " + MAX_MARGINAL_QUBITS + " wires.");
+		}
+		if (Arrays.stream(wires).distinct().count() != wires.length
+				|| Arrays.stream(wires).anyMatch(x -> x < 0 || x >= numberOfQubits)) {
+			throw new IllegalArgumentException("The wires of a marginal must be distinct wires of the state.");
+		}
+	}
+
+	/**
+	 * @param wire The wire to locate.
+	 * @return The bit of the basis state index that belongs to the wire.
+	 */
+	long getBit(final int wire) {
+		return 1L << (numberOfQubits - 1 - wire);
+	}
+
+	/**
+	 * @param wires Mask of wires, bit n for wire n.
+	 * @return The matching mask over basis state indices.
+	 */
+	long getIndexMask(final long wires) {
+		long returnValue = 0;
+		for (long remaining = wires; remaining != 0; remaining &= remaining - 1) {
+			returnValue |= getBit(Long.numberOfTrailingZeros(remaining));
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @param index The basis state index.
+	 * @param wires The wires to read, the first being the most significant.
+	 * @return The bits the basis state holds on the wires, packed together.
+	 */
+	int getPattern(final long index, final int[] wires) {
+		int returnValue = 0;
+		for (int wire : wires) {
+			returnValue = (returnValue << 1) | ((index & getBit(wire)) != 0 ? 1 : 0);
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @return The basis states whose amplitude is not zero, in increasing order.
+	 */
+	long[] getSupport() {
+		return LongStream.range(0, size()).filter(x -> getReal(x) != 0 || getImaginary(x) != 0).toArray();
+	}
+
+	/**
+	 * @param wire The wire whose coherence to get.
+	 * @return The sum over every pair of basis states differing only on the wire
+	 *         of the amplitude with the wire clear times the conjugate of the one
+	 *         with it set, as {real, imaginary}. Together with the probability of
+	 *         the wire it gives the 2x2 density matrix of the wire.
+	 */
+	double[] getWireCoherence(final int wire) {
+		long bit = getBit(wire);
+		double sumR = 0;
+		double sumI = 0;
+		for (long pair = 0; pair < size() / 2; ++pair) {
+			long zero = insertZeroBit(pair, bit);
+			sumR += ComplexMath.multiplyReal(getReal(zero), getImaginary(zero), getReal(zero + bit),
+					-getImaginary(zero + bit));
+			sumI += ComplexMath.multiplyImaginary(getReal(zero), getImaginary(zero), getReal(zero + bit),
+					-getImaginary(zero + bit));
+		}
+		return new double[] { sumR, sumI };
+	}
+
+	/**
+	 * @param wire The wire whose probability to get.
+	 * @return The probability of the wire measuring one.
+	 */
+	abstract double getWireProbability(int wire);
+
+	/**
+	 * @param index     The basis state index.
+	 * @param real      The real part of the new amplitude.
+	 * @param imaginary The imaginary part of the new amplitude.
+	 */
+	abstract void setAmplitude(long index, double real, double imaginary);
+
+	/**
+	 * Gives the state a chance to move to a better suited storage after it has
+	 * been changed, such as a sparse state filling up.
+	 *
+	 * @return This state, or a copy of it in the storage it should move to.
+	 */
+	StateVector toPreferredStorage() {
+		return this;
+	}
+
+	/**
+	 * @param pair The index of an amplitude pair.
+	 * @param bit  The bit that separates the two amplitudes of the pair.
+	 * @return The index of the amplitude of the pair with the bit clear.
+	 */
+	static long insertZeroBit(final long pair, final long bit) {
+		return ((pair & -bit) << 1) | (pair & (bit - 1));
+	}
+}
@@ -0,0 +1,71 @@
+package model;
+
+import java.io.Serializable;
+
+/**
+ * The per wire probabilities of a noisy circuit, averaged over a number of
+ * sampled trajectories, with the standard error of each average.
+ *
+ * @author cdberkstresser
+ *
+ */
+public final class TrajectoryEstimate implements Serializable {
+	/** Serializable ID. */
+	private static final long serialVersionUID = 4470918925431806672L;
+	/** Whether the estimate reached the requested confidence. */
+	private final boolean converged;
+	/** The average probability of each wire measuring one. */
+	private final double[] probabilities;
+	/** The standard error of each average. */
+	private final double[] standardErrors;
+	/** The number of trajectories averaged. */
+	private final int trajectories;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param trajectories   The number of trajectories averaged.
+	 * @param probabilities  The average probability of each wire measuring one.
+	 * @param standardErrors The standard error of each average.
+	 * @param converged      Whether the estimate reached the requested
+	 *                       confidence.
+	 */
+	TrajectoryEstimate(final int trajectories, final double[] probabilities, final double[] standardErrors,
+			final boolean converged) {
+		this.trajectories = trajectories;
+		this.probabilities = probabilities.clone();
+		this.standardErrors = standardErrors.clone();
+		this.converged = converged;
+	}
+
+	/**
+	 * @param wire The wire.
+	 * @return The standard error of the probability of the wire measuring one.
+	 */
+	public double getStandardError(final int wire) {
+		return standardErrors[wire];
+	}
+
+	/**
+	 * @return The number of trajectories averaged.
+	 */
+	public int getTrajectories() {
+		return trajectories;
+	}
+
+	/**
+	 * @param wire The wire.
+	 * @return The estimated probability of the wire measuring one.
+	 */
+	public double getWireProbability(final int wire) {
+		return probabilities[wire];
+	}
+
+	/**
+	 * @return Whether the estimate reached the requested confidence before running
+	 *         out of trajectories.
+	 */
+	public boolean isConverged() {
+		return converged;
+	}
+}
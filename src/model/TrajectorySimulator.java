@@ -0,0 +1,266 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Simulates noise by sampling quantum trajectories, for registers too wide for
+ * a density matrix. Each trajectory is a pure state run through the usual
+ * kernels, with every noise channel replaced by one of its Kraus operators
+ * picked at random by the probability it has on the current state. The wire
+ * probabilities of the trajectories are averaged until the average is known
+ * well enough.
+ *
+ * @author cdberkstresser
+ *
+ */
+public final class TrajectorySimulator {
+	/** The fewest trajectories averaged before the error bars are trusted. */
+	static final int MIN_TRAJECTORIES = 32;
+	/** The number of standard errors in a 95% confidence interval. */
+	private static final double Z_95 = 1.96;
+
+	/**
+	 * The most trajectories sampled for one estimate. Defaults to the
+	 * quantum.trajectories system property.
+	 */
+	private static volatile int maxTrajectories = Math.max(1, Integer.getInteger("quantum.trajectories", 1000));
+
+	/**
+	 * The half width of the 95% confidence interval of every wire probability at
+	 * which sampling stops early.
+	 */
+	private static volatile double tolerance = 0.01;
+
+	/**
+	 * The number of wires at which noisy circuits are sampled rather than
+	 * simulated with a density matrix. Defaults to the quantum.trajectoryQubits
+	 * system property.
+	 */
+	private static volatile int trajectoryQubits = Integer.getInteger("quantum.trajectoryQubits", 11);
+
+	/**
+	 * Utility class.
+	 */
+	private TrajectorySimulator() {
+	}
+
+	/**
+	 * @return The most trajectories sampled for one estimate.
+	 */
+	public static int getMaxTrajectories() {
+		return maxTrajectories;
+	}
+
+	/**
+	 * @return The half width of the 95% confidence interval at which sampling
+	 *         stops early.
+	 */
+	public static double getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * @return The number of wires at which noisy circuits are sampled rather than
+	 *         simulated with a density matrix.
+	 */
+	public static int getTrajectoryQubits() {
+		return trajectoryQubits;
+	}
+
+	/**
+	 * @param maxTrajectories The most trajectories sampled for one estimate.
+	 */
+	public static void setMaxTrajectories(final int maxTrajectories) {
+		if (maxTrajectories < 1) {
+			throw new IllegalArgumentException("At least one trajectory is needed.");
+		}
+		TrajectorySimulator.maxTrajectories = maxTrajectories;
+	}
+
+	/**
+	 * @param tolerance The half width of the 95% confidence interval at which
+	 *                  sampling stops early. Zero always runs every trajectory.
+	 */
+	public static void setTolerance(final double tolerance) {
+		if (!(tolerance >= 0)) {
+			throw new IllegalArgumentException("The tolerance can not be negative.");
+		}
+		TrajectorySimulator.tolerance = tolerance;
+	}
+
+	/**
+	 * @param trajectoryQubits The number of wires at which noisy circuits are
+	 *                         sampled rather than simulated with a density matrix.
+	 */
+	public static void setTrajectoryQubits(final int trajectoryQubits) {
+		TrajectorySimulator.trajectoryQubits = trajectoryQubits;
+	}
+
+	/**
+	 * Samples trajectories in batches across the simulation pool. Each
+	 * trajectory gets its own random stream split off in order, so the estimate
+	 * only depends on the random generator passed in and not on scheduling.
+	 *
+	 * @param start  The state before the gates. Left unchanged.
+	 * @param gates  The gates and noise channels to apply. Gates in later
+	 *               columns are applied after gates in earlier ones.
+	 * @param random The source of the random streams.
+	 * @return The averaged wire probabilities, once every 95% confidence interval
+	 *         is within the tolerance or the trajectories run out.
+	 */
+	public static TrajectoryEstimate simulate(final StateVector start, final List<QuantumGate> gates,
+			final SplittableRandom random) {
+		List<QuantumGate> program = compile(gates);
+		int qubits = start.getNumberOfQubits();
+		int limit = maxTrajectories;
+		double target = tolerance;
+		int batch = Math.max(1, QuantumSimulator.getPool().getParallelism());
+		double[] means = new double[qubits];
+		double[] squares = new double[qubits];
+		int count = 0;
+		while (count < limit) {
+			int size = Math.min(batch, limit - count);
+			SplittableRandom[] streams = new SplittableRandom[size];
+			for (int n = 0; n < size; ++n) {
+				streams[n] = random.split();
+			}
+			double[][] results = new double[size][];
+			QuantumSimulator.forEachRange(size, 1, (from, to) -> {
+				for (int n = from; n < to; ++n) {
+					results[n] = runTrajectory(start, program, streams[n]);
+				}
+			});
+			// fold in the batch in order with Welford's update.
+			for (double[] result : results) {
+				++count;
+				for (int wire = 0; wire < qubits; ++wire) {
+					double delta = result[wire] - means[wire];
+					means[wire] += delta / count;
+					squares[wire] += delta * (result[wire] - means[wire]);
+				}
+			}
+			if (count >= MIN_TRAJECTORIES && getWidestInterval(squares, count) <= target) {
+				return new TrajectoryEstimate(count, means, getStandardErrors(squares, count), true);
+			}
+		}
+		return new TrajectoryEstimate(count, means, getStandardErrors(squares, count), false);
+	}
+
+	/**
+	 * Applies a noise channel to a trajectory by picking one of its Kraus
+	 * operators and renormalizing.
+	 *
+	 * @param state   The state to update.
+	 * @param channel The noise channel.
+	 * @param random  The random stream of the trajectory.
+	 */
+	static void applyChannel(final StateVector state, final NoiseQuantumGate channel, final SplittableRandom random) {
+		int wire = channel.getWires().get(0);
+		// the 2x2 density matrix of the wire gives the weight of every operator.
+		double one = state.getWireProbability(wire);
+		double zero = 1 - one;
+		double[] coherence = state.getWireCoherence(wire);
+		List<double[]> kraus = channel.getKrausOperators();
+		double[] weights = new double[kraus.size()];
+		double total = 0;
+		for (int k = 0; k < weights.length; ++k) {
+			double[] m = kraus.get(k);
+			for (int row = 0; row < 4; row += 2) {
+				double crossR = ComplexMath.multiplyReal(m[2 * row], m[2 * row + 1], m[2 * row + 2], -m[2 * row + 3]);
+				double crossI = ComplexMath.multiplyImaginary(m[2 * row], m[2 * row + 1], m[2 * row + 2],
+						-m[2 * row + 3]);
+				weights[k] += ComplexMath.norm(m[2 * row], m[2 * row + 1]) * zero
+						+ ComplexMath.norm(m[2 * row + 2], m[2 * row + 3]) * one
+						+ 2 * ComplexMath.multiplyReal(crossR, crossI, coherence[0], coherence[1]);
+			}
+			weights[k] = Math.max(0, weights[k]);
+			total += weights[k];
+		}
+		double pick = random.nextDouble() * total;
+		int chosen = 0;
+		while (chosen < weights.length - 1 && (pick -= weights[chosen]) >= 0) {
+			++chosen;
+		}
+		double scale = 1 / Math.sqrt(weights[chosen]);
+		double[] matrix = kraus.get(chosen).clone();
+		for (int n = 0; n < matrix.length; ++n) {
+			matrix[n] *= scale;
+		}
+		state.applyMatrix(wire, 0, 0, matrix);
+	}
+
+	/**
+	 * Fuses the gates between noise channels once for every trajectory.
+	 *
+	 * @param gates The gates and noise channels.
+	 * @return The operations in the order to apply them.
+	 */
+	private static List<QuantumGate> compile(final List<QuantumGate> gates) {
+		List<QuantumGate> sorted = new ArrayList<>(gates);
+		sorted.sort(Comparator.comparingInt(QuantumGate::getGatePosition));
+		List<QuantumGate> returnValue = new ArrayList<>();
+		List<QuantumGate> unitaries = new ArrayList<>();
+		for (QuantumGate gate : sorted) {
+			if (gate.getKind() == GateKind.CHANNEL) {
+				returnValue.addAll(GateFusion.fuse(unitaries, QuantumSimulator.getFusionQubits()));
+				unitaries.clear();
+				returnValue.add(gate);
+			} else {
+				unitaries.add(gate);
+			}
+		}
+		returnValue.addAll(GateFusion.fuse(unitaries, QuantumSimulator.getFusionQubits()));
+		return returnValue;
+	}
+
+	/**
+	 * @param squares The sums of squared deviations of every wire.
+	 * @param count   The number of trajectories.
+	 * @return The standard error of the average of every wire.
+	 */
+	private static double[] getStandardErrors(final double[] squares, final int count) {
+		double[] returnValue = new double[squares.length];
+		for (int wire = 0; wire < squares.length; ++wire) {
+			returnValue[wire] = count < 2 ? Double.POSITIVE_INFINITY
+					: Math.sqrt(squares[wire] / (count - 1) / count);
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @param squares The sums of squared deviations of every wire.
+	 * @param count   The number of trajectories.
+	 * @return The half width of the widest 95% confidence interval.
+	 */
+	private static double getWidestInterval(final double[] squares, final int count) {
+		double returnValue = 0;
+		for (double error : getStandardErrors(squares, count)) {
+			returnValue = Math.max(returnValue, Z_95 * error);
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @param start   The state before the gates.
+	 * @param program The operations to apply.
+	 * @param random  The random stream of the trajectory.
+	 * @return The probability of every wire measuring one at the end of the
+	 *         trajectory.
+	 */
+	private static double[] runTrajectory(final StateVector start, final List<QuantumGate> program,
+			final SplittableRandom random) {
+		StateVector state = start.copy();
+		for (QuantumGate operation : program) {
+			if (operation.getKind() == GateKind.CHANNEL) {
+				applyChannel(state, (NoiseQuantumGate) operation, random);
+			} else {
+				QuantumSimulator.applyGate(state, operation);
+				state = state.toPreferredStorage();
+			}
+		}
+		return state.getWireProbabilities();
+	}
+}
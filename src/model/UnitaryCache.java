@@ -0,0 +1,95 @@
+package model;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Per circuit cache of the unitaries of ranges of columns, held within a byte
+ * budget. A single unitary of a wide circuit takes hundreds of megabytes, so the
+ * least recently used ranges are dropped as soon as the cache holds more bytes
+ * than its budget, and ranges bigger than the whole budget are never kept.
+ *
+ * @author cdberkstresser
+ *
+ */
+final class UnitaryCache {
+	/**
+	 * The most bytes of unitaries kept. Defaults to the quantum.unitaryCacheBytes
+	 * system property.
+	 */
+	private final long budget = Math.max(0, Long.getLong("quantum.unitaryCacheBytes", 512L << 20));
+
+	/** The number of bytes of unitaries currently kept. */
+	private long bytes;
+
+	/** The unitaries by first and last column, least recently used first. */
+	private final LinkedHashMap<List<Integer>, ComplexMatrix> unitaries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * Empties the cache.
+	 */
+	void clear() {
+		unitaries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * @param range The first and last column of the range.
+	 * @return The cached unitary of the range, or null when it is not cached.
+	 */
+	ComplexMatrix get(final List<Integer> range) {
+		return unitaries.get(range);
+	}
+
+	/**
+	 * Keeps the unitary of a range, then drops the least recently used other
+	 * ranges until the cache is within budget again.
+	 *
+	 * @param range   The first and last column of the range.
+	 * @param unitary The unitary. Kept, so it must not be changed.
+	 */
+	void put(final List<Integer> range, final ComplexMatrix unitary) {
+		long weight = weigh(unitary);
+		if (weight > budget) {
+			return;
+		}
+		ComplexMatrix previous = unitaries.put(range, unitary);
+		if (previous != null) {
+			bytes -= weigh(previous);
+		}
+		bytes += weight;
+		Iterator<Map.Entry<List<Integer>, ComplexMatrix>> entries = unitaries.entrySet().iterator();
+		while (bytes > budget && entries.hasNext()) {
+			Map.Entry<List<Integer>, ComplexMatrix> entry = entries.next();
+			if (!entry.getKey().equals(range)) {
+				bytes -= weigh(entry.getValue());
+				entries.remove();
+			}
+		}
+	}
+
+	/**
+	 * @param filter Picks the ranges to drop.
+	 */
+	void removeIf(final Predicate<List<Integer>> filter) {
+		Iterator<Map.Entry<List<Integer>, ComplexMatrix>> entries = unitaries.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<List<Integer>, ComplexMatrix> entry = entries.next();
+			if (filter.test(entry.getKey())) {
+				bytes -= weigh(entry.getValue());
+				entries.remove();
+			}
+		}
+	}
+
+	/**
+	 * @param unitary A unitary.
+	 * @return The number of bytes its entries take.
+	 */
+	private static long weigh(final ComplexMatrix unitary) {
+		return 16L * unitary.getRows() * unitary.getColumns();
+	}
+}
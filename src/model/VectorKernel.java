@@ -0,0 +1,67 @@
+package model;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Amplitude kernels written against the incubating vector API. Compiled by the
+ * simd build profile and only loaded when the jdk.incubator.vector module is
+ * present at runtime.
+ *
+ * @author cdberkstresser
+ *
+ */
+final class VectorKernel implements AmplitudeKernel {
+	/** The widest vector shape the CPU supports. */
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	/** Handles the tails of runs shorter than a vector. */
+	private final AmplitudeKernel tail = new ScalarKernel();
+
+	@Override
+	public void applyMatrix(final double[] real, final double[] imaginary, final int zero, final int one,
+			final int length, final double[] matrix) {
+		int n = 0;
+		for (int bound = SPECIES.loopBound(length); n < bound; n += SPECIES.length()) {
+			DoubleVector zR = DoubleVector.fromArray(SPECIES, real, zero + n);
+			DoubleVector zI = DoubleVector.fromArray(SPECIES, imaginary, zero + n);
+			DoubleVector oR = DoubleVector.fromArray(SPECIES, real, one + n);
+			DoubleVector oI = DoubleVector.fromArray(SPECIES, imaginary, one + n);
+			zR.mul(matrix[0]).sub(zI.mul(matrix[1])).add(oR.mul(matrix[2])).sub(oI.mul(matrix[3]))
+					.intoArray(real, zero + n);
+			zI.mul(matrix[0]).add(zR.mul(matrix[1])).add(oI.mul(matrix[2])).add(oR.mul(matrix[3]))
+					.intoArray(imaginary, zero + n);
+			zR.mul(matrix[4]).sub(zI.mul(matrix[5])).add(oR.mul(matrix[6])).sub(oI.mul(matrix[7]))
+					.intoArray(real, one + n);
+			zI.mul(matrix[4]).add(zR.mul(matrix[5])).add(oI.mul(matrix[6])).add(oR.mul(matrix[7]))
+					.intoArray(imaginary, one + n);
+		}
+		tail.applyMatrix(real, imaginary, zero + n, one + n, length - n, matrix);
+	}
+
+	@Override
+	public void applyPhase(final double[] real, final double[] imaginary, final int from, final int length,
+			final double phaseReal, final double phaseImaginary) {
+		int n = 0;
+		for (int bound = SPECIES.loopBound(length); n < bound; n += SPECIES.length()) {
+			DoubleVector aR = DoubleVector.fromArray(SPECIES, real, from + n);
+			DoubleVector aI = DoubleVector.fromArray(SPECIES, imaginary, from + n);
+			aR.mul(phaseReal).sub(aI.mul(phaseImaginary)).intoArray(real, from + n);
+			aR.mul(phaseImaginary).add(aI.mul(phaseReal)).intoArray(imaginary, from + n);
+		}
+		tail.applyPhase(real, imaginary, from + n, length - n, phaseReal, phaseImaginary);
+	}
+
+	@Override
+	public double sumProbabilities(final double[] real, final double[] imaginary, final int from,
+			final int length) {
+		int n = 0;
+		DoubleVector sum = DoubleVector.zero(SPECIES);
+		for (int bound = SPECIES.loopBound(length); n < bound; n += SPECIES.length()) {
+			DoubleVector aR = DoubleVector.fromArray(SPECIES, real, from + n);
+			DoubleVector aI = DoubleVector.fromArray(SPECIES, imaginary, from + n);
+			sum = aR.fma(aR, aI.fma(aI, sum));
+		}
+		return sum.reduceLanes(VectorOperators.ADD) + tail.sumProbabilities(real, imaginary, from + n, length - n);
+	}
+}